@@ -0,0 +1,60 @@
+#!/bin/bash
+# Measures server startup time (until "Server started successfully!") and resident memory,
+# once with the plain jar and once with the class data sharing archive, then with the archive
+# and SerialGC or G1 forced. The garbage collector each row used is printed too, since on
+# machines with one CPU the default is already SerialGC.
+#
+# Usage: measure-startup.sh <java> <jar> [cds archive] [runs]
+set -euo pipefail
+
+JAVA="$1"
+JAR="$2"
+ARCHIVE="${3:-}"
+RUNS="${4:-5}"
+PORT="${MEASURE_PORT:-18080}"
+
+measure() {
+    local label="$1"
+    shift
+    local total_ms=0
+    local total_kb=0
+    local gc=""
+    for run in $(seq "$RUNS"); do
+        local log
+        log=$(mktemp)
+        local start
+        start=$(date +%s%N)
+        PORT="$PORT" REPLAY_DIR= "$JAVA" -Xlog:gc "$@" -jar "$JAR" > "$log" 2>&1 &
+        local pid=$!
+        until grep -q "Server started successfully!" "$log"; do
+            if ! kill -0 "$pid" 2> /dev/null; then
+                echo "Server exited during startup:" >&2
+                cat "$log" >&2
+                exit 1
+            fi
+            sleep 0.005
+        done
+        local end
+        end=$(date +%s%N)
+        # give the JVM a moment to settle before sampling memory
+        sleep 0.5
+        local rss_kb
+        rss_kb=$(awk '/^VmRSS:/ { print $2 }' "/proc/$pid/status")
+        gc=$(grep -o "Using [A-Za-z0-9]*" "$log" | head -n 1 | cut -d ' ' -f 2)
+        kill "$pid"
+        wait "$pid" 2> /dev/null || true
+        rm -f "$log"
+        total_ms=$((total_ms + (end - start) / 1000000))
+        total_kb=$((total_kb + rss_kb))
+    done
+    printf "%-24s startup %5d ms   rss %6d KiB   gc %-8s (average of %d runs)\n" \
+        "$label" $((total_ms / RUNS)) $((total_kb / RUNS)) "$gc" "$RUNS"
+}
+
+echo "Startup report for $JAR ($("$JAVA" -version 2>&1 | head -n 1))"
+measure "jar" -Xshare:auto
+if [ -n "$ARCHIVE" ]; then
+    measure "jar + AppCDS archive" -XX:SharedArchiveFile="$ARCHIVE"
+    measure "jar + AppCDS + SerialGC" -XX:SharedArchiveFile="$ARCHIVE" -XX:+UseSerialGC
+    measure "jar + AppCDS + G1" -XX:SharedArchiveFile="$ARCHIVE" -XX:+UseG1GC
+fi
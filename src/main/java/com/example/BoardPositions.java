@@ -0,0 +1,125 @@
+package com.example;
+
+// Helpers for working with a board as a single int (base 3, one digit per cell: 0 empty, 1 X, 2 O).
+// A board has 8 symmetries (4 rotations, each optionally mirrored); the canonical code of a
+// position is the smallest code among them, so all equivalent positions share one key.
+public final class BoardPositions {
+    public static final int EMPTY = 0;
+    public static final int X = 1;
+    public static final int O = 2;
+    // 3^9 possible codes
+    public static final int CODE_COUNT = 19683;
+
+    private static final int[] POW3 = {1, 3, 9, 27, 81, 243, 729, 2187, 6561};
+
+    private static final int[][] LINES = {
+            {0, 1, 2}, {3, 4, 5}, {6, 7, 8}, // horizontal
+            {0, 3, 6}, {1, 4, 7}, {2, 5, 8}, // vertical
+            {0, 4, 8}, {2, 4, 6}             // diagonal
+    };
+
+    // SYMMETRIES[s][i]: the cell of the original board that ends up in cell i after symmetry s
+    static final int[][] SYMMETRIES = new int[8][9];
+
+    static {
+        for (int s = 0; s < 8; s++) {
+            for (int i = 0; i < 9; i++) {
+                int row = i / 3;
+                int col = i % 3;
+                if (s >= 4) {
+                    // mirror left-right before rotating
+                    col = 2 - col;
+                }
+                for (int r = 0; r < s % 4; r++) {
+                    // rotate 90 degrees clockwise: (row, col) comes from (2 - col, row)
+                    int from = 2 - col;
+                    col = row;
+                    row = from;
+                }
+                SYMMETRIES[s][i] = row * 3 + col;
+            }
+        }
+    }
+
+    private BoardPositions() {
+    }
+
+    // encodes a server/client board ("X", "O", or the position number for empty cells)
+    public static int encode(String[] board) {
+        int code = 0;
+        for (int i = 0; i < 9; i++) {
+            if ("X".equals(board[i])) {
+                code += X * POW3[i];
+            } else if ("O".equals(board[i])) {
+                code += O * POW3[i];
+            }
+        }
+        return code;
+    }
+
+    public static int cell(int code, int index) {
+        return code / POW3[index] % 3;
+    }
+
+    public static int withCell(int code, int index, int piece) {
+        return code + (piece - cell(code, index)) * POW3[index];
+    }
+
+    public static int transform(int code, int symmetry) {
+        int[] source = SYMMETRIES[symmetry];
+        int result = 0;
+        for (int i = 0; i < 9; i++) {
+            result += cell(code, source[i]) * POW3[i];
+        }
+        return result;
+    }
+
+    // index of the symmetry that maps code to its canonical code
+    public static int canonicalSymmetry(int code) {
+        int best = 0;
+        int bestCode = code;
+        for (int s = 1; s < 8; s++) {
+            int candidate = transform(code, s);
+            if (candidate < bestCode) {
+                bestCode = candidate;
+                best = s;
+            }
+        }
+        return best;
+    }
+
+    public static int canonical(int code) {
+        return transform(code, canonicalSymmetry(code));
+    }
+
+    // the piece whose turn it is (X moves first)
+    public static int sideToMove(int code) {
+        int xs = 0;
+        int os = 0;
+        for (int i = 0; i < 9; i++) {
+            int piece = cell(code, i);
+            if (piece == X) {
+                xs++;
+            } else if (piece == O) {
+                os++;
+            }
+        }
+        return xs == os ? X : O;
+    }
+
+    // "X" or "O" for a completed line, "draw" for a full board, null while the game is still going
+    public static String winner(int code) {
+        for (int[] line : LINES) {
+            int piece = cell(code, line[0]);
+            if (piece != EMPTY && piece == cell(code, line[1]) && piece == cell(code, line[2])) {
+                return piece == X ? "X" : "O";
+            }
+        }
+        for (int i = 0; i < 9; i++) {
+            if (cell(code, i) == EMPTY) {
+                return null; // game not done
+            }
+        }
+        return "draw"; // game done but no winner
+    }
+}
@@ -0,0 +1,98 @@
+package com.example;
+
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Hosts any number of TicTacToeClient sessions in one JVM.
+// Each session's socket read loop and input loop run as virtual threads, so an idle session costs
+// no OS thread. (Java-WebSocket still starts one platform write thread per client.)
+//
+// Usage: java -cp websocket-tictactoe.jar com.example.ClientRuntime <server uri> [--bots N] [--games G] [--script file] [--deflate true]
+// (a server uri ending in /?tournament registers every session for a bracket instead of matchmaking)
+public class ClientRuntime implements AutoCloseable {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // permessage-deflate offer for our sessions. Java-WebSocket 1.5.4 always asks the server for
+    // server_no_context_takeover too, which gives up most of the saving on game traffic (see DeflateBenchmark).
+    private static class DeflateOffer extends PerMessageDeflateExtension {
+        @Override
+        public String getProvidedExtensionAsClient() {
+            return "permessage-deflate; client_no_context_takeover";
+        }
+
+        @Override
+        public IExtension copyInstance() {
+            return new DeflateOffer();
+        }
+    }
+
+    // opens the connection on a runtime thread; the future completes when the handshake is done
+    public CompletableFuture<Void> connect(TicTacToeClient client) {
+        // run() connects and then reads from the socket until it closes, so no extra connect thread is started
+        executor.execute(client);
+        return client.connectedFuture();
+    }
+
+    // connects and then plays the session with the given input; the future completes when the session ends
+    public CompletableFuture<Void> launch(TicTacToeClient client, InputSource input) {
+        return connect(client).thenRunAsync(() -> client.play(input), executor);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: ClientRuntime <server uri> [--bots N] [--games G] [--script file] [--deflate true]");
+            return;
+        }
+        URI serverURI = new URI(args[0]);
+        int sessions = 1;
+        int games = 1;
+        String script = null;
+        boolean deflate = false;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            if ("--bots".equals(args[i])) {
+                sessions = Integer.parseInt(args[i + 1]);
+            } else if ("--games".equals(args[i])) {
+                games = Integer.parseInt(args[i + 1]);
+            } else if ("--script".equals(args[i])) {
+                script = args[i + 1];
+            } else if ("--deflate".equals(args[i])) {
+                deflate = Boolean.parseBoolean(args[i + 1]);
+            }
+        }
+
+        try (ClientRuntime runtime = new ClientRuntime()) {
+            long start = System.nanoTime();
+            List<CompletableFuture<Void>> running = new ArrayList<>();
+            for (int i = 0; i < sessions; i++) {
+                InputSource input = script != null ? InputSource.script(Paths.get(script)) : InputSource.bot(games);
+                Draft_6455 draft = deflate ? new Draft_6455(new DeflateOffer()) : new Draft_6455();
+                running.add(runtime.launch(new TicTacToeClient(serverURI, false, draft), input));
+            }
+
+            int failed = 0;
+            for (CompletableFuture<Void> session : running) {
+                try {
+                    session.join();
+                } catch (Exception e) {
+                    failed++;
+                }
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println(sessions + " sessions finished in " + millis + " ms (" + failed + " failed to connect)");
+        }
+    }
+}
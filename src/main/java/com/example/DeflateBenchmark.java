@@ -0,0 +1,145 @@
+package com.example;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.Deflater;
+
+// Measures what permessage-deflate (RFC 7692) would save on the server's actual traffic.
+// Games are played through the in-memory harness to capture the exact messages each player receives,
+// then each player's stream is compressed the way the extension does it: raw deflate, a sync flush per
+// message, the trailing 00 00 ff ff removed. Frame headers are included in the byte counts.
+//
+// Usage: java -cp websocket-tictactoe.jar com.example.DeflateBenchmark [games]
+public class DeflateBenchmark {
+
+    // in-memory player that keeps every message it receives
+    private static class RecordingPlayer implements PlayerConnection {
+        private final List<String> received = new ArrayList<>();
+
+        @Override
+        public void send(String text) {
+            received.add(text);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String remoteAddress() {
+            return "bench";
+        }
+    }
+
+    // server to client frames are unmasked: 2 header bytes up to 125 payload bytes, 4 up to 64 KiB
+    private static int frameBytes(int payload) {
+        return payload + (payload < 126 ? 2 : 4);
+    }
+
+    private static int playGames(int games, RecordingPlayer x, RecordingPlayer o) {
+        ServerSimulation.VirtualClock clock = new ServerSimulation.VirtualClock();
+        TicTacToeWebSocketServer server = new TicTacToeWebSocketServer(new InetSocketAddress(0), clock, null);
+        Random random = new Random(1);
+        server.handleOpen(x);
+        server.handleOpen(o);
+
+        int moves = 0;
+        String[] board = {"1", "2", "3", "4", "5", "6", "7", "8", "9"};
+        String turn = "X";
+        for (int game = 0; game < games; game++) {
+            while (BoardPositions.winner(BoardPositions.encode(board)) == null) {
+                List<Integer> free = new ArrayList<>();
+                for (int i = 0; i < 9; i++) {
+                    if (!"X".equals(board[i]) && !"O".equals(board[i])) {
+                        free.add(i + 1);
+                    }
+                }
+                int position = free.get(random.nextInt(free.size()));
+                server.handleMessage("X".equals(turn) ? x : o, "{\"action\":\"makeMove\",\"position\":" + position + "}");
+                board[position - 1] = turn;
+                turn = "X".equals(turn) ? "O" : "X";
+                moves++;
+            }
+            server.handleMessage(x, "{\"action\":\"playAgain\",\"response\":true}");
+            server.handleMessage(o, "{\"action\":\"playAgain\",\"response\":true}");
+            clock.run();
+            board = new String[]{"1", "2", "3", "4", "5", "6", "7", "8", "9"};
+            turn = "X";
+        }
+        return moves;
+    }
+
+    // compresses each player's messages in order and returns {bytes on the wire, nanoseconds spent}
+    private static long[] compress(List<List<byte[]>> streams, int level, boolean contextTakeover) {
+        byte[] buffer = new byte[64 * 1024];
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (List<byte[]> stream : streams) {
+            Deflater deflater = new Deflater(level, true);
+            for (byte[] message : stream) {
+                if (!contextTakeover) {
+                    deflater.reset();
+                }
+                deflater.setInput(message);
+                int length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                bytes += frameBytes(length - 4);
+            }
+            deflater.end();
+        }
+        return new long[]{bytes, System.nanoTime() - start};
+    }
+
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+
+        RecordingPlayer x = new RecordingPlayer();
+        RecordingPlayer o = new RecordingPlayer();
+        // the server logs every message
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        int moves;
+        try {
+            moves = playGames(games, x, o);
+        } finally {
+            System.setOut(console);
+        }
+
+        List<List<byte[]>> streams = new ArrayList<>();
+        long rawBytes = 0;
+        long messages = 0;
+        for (RecordingPlayer player : Arrays.asList(x, o)) {
+            List<byte[]> stream = new ArrayList<>();
+            for (String message : player.received) {
+                byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+                stream.add(payload);
+                rawBytes += frameBytes(payload.length);
+                messages++;
+            }
+            streams.add(stream);
+        }
+
+        System.out.println("Traffic: " + games + " games, " + moves + " moves, " + messages + " messages to clients");
+        System.out.println(String.format("%-36s %8.1f bytes/move", "uncompressed", (double) rawBytes / moves));
+
+        Object[][] modes = {
+                {"deflate, no context takeover", Deflater.DEFAULT_COMPRESSION, false},
+                {"deflate, context takeover", Deflater.DEFAULT_COMPRESSION, true},
+                {"deflate level 1, context takeover", Deflater.BEST_SPEED, true},
+        };
+        for (Object[] mode : modes) {
+            // first pass warms up the JIT
+            compress(streams, (Integer) mode[1], (Boolean) mode[2]);
+            long[] result = compress(streams, (Integer) mode[1], (Boolean) mode[2]);
+            System.out.println(String.format("%-36s %8.1f bytes/move (%4.0f%% of uncompressed), %6.0f ns CPU/move",
+                    mode[0], (double) result[0] / moves, 100.0 * result[0] / rawBytes, (double) result[1] / moves));
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.example;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Appends every finished game to rolling segment files as a compact move sequence.
+//
+// Record layout (at most 6 bytes per game):
+//   header byte: high nibble = number of moves (0-9), low nibble = outcome (0 = X wins, 1 = O wins, 2 = draw)
+//   move bytes:  positions 1-9, two per byte, first move in the high nibble (last low nibble is 0 if unused)
+//
+// Games only queue their record; the recorder's own thread writes the queue to disk once a second,
+// so a slow disk never holds up a game.
+public class GameRecorder {
+    public static final int OUTCOME_X = 0;
+    public static final int OUTCOME_O = 1;
+    public static final int OUTCOME_DRAW = 2;
+    public static final int MAX_RECORD_BYTES = 6;
+    public static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    // pending: encoded records waiting for the writer thread
+    private final Queue<byte[]> pending = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "game-recorder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // the segment state below is only used by the writer thread (and close)
+    private OutputStream out = null;
+    private long segmentBytes = 0;
+    private int segmentIndex;
+
+    private GameRecorder(Path directory, long maxSegmentBytes) {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        writer.scheduleWithFixedDelay(this::writePending, 1, 1, TimeUnit.SECONDS);
+    }
+
+    // REPLAY_DIR (default "replays") and REPLAY_SEGMENT_BYTES; an empty REPLAY_DIR turns recording off
+    public static GameRecorder fromEnv() {
+        String dir = TicTacToeWebSocketServer.setting("REPLAY_DIR", "replays");
+        if (dir.isEmpty()) {
+            return null;
+        }
+        long segmentBytes = Long.parseLong(TicTacToeWebSocketServer.setting("REPLAY_SEGMENT_BYTES", String.valueOf(4 << 20)));
+        return new GameRecorder(Paths.get(dir), segmentBytes);
+    }
+
+    public static int outcomeCode(String winner) {
+        if ("X".equals(winner)) {
+            return OUTCOME_X;
+        } else if ("O".equals(winner)) {
+            return OUTCOME_O;
+        }
+        return OUTCOME_DRAW;
+    }
+
+    // packs a game into out, returns the number of bytes used
+    public static int encode(byte[] moves, int moveCount, int outcome, byte[] out) {
+        out[0] = (byte) (moveCount << 4 | outcome);
+        int length = recordLength(out[0]);
+        for (int i = 1; i < length; i++) {
+            out[i] = 0;
+        }
+        for (int i = 0; i < moveCount; i++) {
+            int shift = (i % 2 == 0) ? 4 : 0;
+            out[1 + i / 2] |= (byte) (moves[i] << shift);
+        }
+        return length;
+    }
+
+    public static int moveCount(byte header) {
+        return (header >> 4) & 0x0F;
+    }
+
+    public static int outcome(byte header) {
+        return header & 0x0F;
+    }
+
+    // total record length, including the header
+    public static int recordLength(byte header) {
+        return 1 + (moveCount(header) + 1) / 2;
+    }
+
+    // position (1-9) of the given move of the record starting at offset
+    public static int move(byte[] data, int offset, int moveIndex) {
+        int packed = data[offset + 1 + moveIndex / 2];
+        return (moveIndex % 2 == 0) ? (packed >> 4) & 0x0F : packed & 0x0F;
+    }
+
+    // true if the record starting at offset (recordLength(data[offset]) bytes) fits the layout above:
+    // at most 9 moves, a known outcome, and distinct positions 1-9
+    public static boolean isValid(byte[] data, int offset) {
+        int moveCount = moveCount(data[offset]);
+        if (moveCount > 9 || outcome(data[offset]) > OUTCOME_DRAW) {
+            return false;
+        }
+        int seen = 0;
+        for (int i = 0; i < moveCount; i++) {
+            int position = move(data, offset, i);
+            if (position < 1 || position > 9 || (seen & 1 << position) != 0) {
+                return false;
+            }
+            seen |= 1 << position;
+        }
+        return true;
+    }
+
+    // called from the game's lock: encodes the game and queues it, no disk access
+    public void record(byte[] moves, int moveCount, String winner) {
+        try {
+            byte[] record = new byte[MAX_RECORD_BYTES];
+            int length = encode(moves, moveCount, outcomeCode(winner), record);
+            pending.add(Arrays.copyOf(record, length));
+        } catch (RuntimeException e) {
+            System.out.println("Failed to record game: " + e);
+        }
+    }
+
+    // writes everything queued so far; any failure is logged here, since an exception would stop the writer thread
+    private synchronized void writePending() {
+        int dropped = 0;
+        byte[] record;
+        while ((record = pending.poll()) != null) {
+            try {
+                if (out == null || segmentBytes >= maxSegmentBytes) {
+                    roll();
+                }
+                out.write(record);
+                segmentBytes += record.length;
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Failed to record game: " + e);
+                dropped++;
+                // the next record starts a new segment instead of appending to a broken one
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException ignored) {
+                    }
+                    out = null;
+                }
+            }
+        }
+        try {
+            if (out != null) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to flush game records: " + e.getMessage());
+        }
+        if (dropped > 0) {
+            System.out.println("Dropped " + dropped + " game records");
+        }
+    }
+
+    public synchronized void close() {
+        writer.shutdown();
+        writePending();
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to close game records: " + e.getMessage());
+        }
+    }
+
+    // closes the current segment and opens the next one, never overwriting segments from earlier runs
+    private void roll() throws IOException {
+        if (out == null) {
+            Files.createDirectories(directory);
+            segmentIndex = lastSegmentIndex();
+        } else {
+            out.close();
+        }
+        segmentIndex++;
+        Path segment = directory.resolve(String.format("games-%06d%s", segmentIndex, SEGMENT_SUFFIX));
+        out = new BufferedOutputStream(Files.newOutputStream(segment), 64 * 1024);
+        segmentBytes = 0;
+        System.out.println("Recording games to " + segment);
+    }
+
+    private int lastSegmentIndex() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            // only our own segment names, so a file like games-old.seg is ignored
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.matches("games-\\d{6,9}" + Pattern.quote(SEGMENT_SUFFIX)))
+                    .mapToInt(name -> Integer.parseInt(name.substring(6, name.length() - SEGMENT_SUFFIX.length())))
+                    .max()
+                    .orElse(0);
+        }
+    }
+}
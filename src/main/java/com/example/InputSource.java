@@ -0,0 +1,66 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.Scanner;
+
+// Where a client session gets its commands from (the same commands a player types: 1-9, 'yes', 'no', 'quit', ...).
+// Sessions pull from their source in TicTacToeClient.play, separately from the protocol handling in handleMessage.
+public interface InputSource {
+
+    // returns the next command for the session, or null when there is no more input
+    String nextLine(TicTacToeClient client) throws InterruptedException;
+
+    // commands typed on the console
+    static InputSource stdin() {
+        Scanner scanner = new Scanner(System.in);
+        return client -> scanner.hasNextLine() ? scanner.nextLine() : null;
+    }
+
+    // commands read from a file, one per line ('#' starts a comment);
+    // a move or a yes/no waits until the server asks for it, anything else ('hint', 'who', 'room', ...) is sent
+    // right away, since no prompt may ever follow it
+    static InputSource script(Path file) throws IOException {
+        return script(Files.readAllLines(file));
+    }
+
+    static InputSource script(List<String> lines) {
+        Queue<String> commands = new ArrayDeque<>();
+        for (String line : lines) {
+            if (!line.isBlank() && !line.trim().startsWith("#")) {
+                commands.add(line.trim());
+            }
+        }
+        return client -> {
+            String command = commands.peek();
+            if (command == null || (answersPrompt(command) && !client.awaitPrompt())) {
+                return null;
+            }
+            return commands.poll();
+        };
+    }
+
+    // moves and answers to the play again question, the only input the server prompts for
+    private static boolean answersPrompt(String command) {
+        return command.matches("[1-9]") || "yes".equalsIgnoreCase(command) || "no".equalsIgnoreCase(command);
+    }
+
+    // plays the best move from the position table and accepts games until it has played the given number
+    static InputSource bot(int games) {
+        int[] played = {0};
+        return client -> {
+            if (!client.awaitPrompt()) {
+                return null;
+            }
+            if (client.isWaitingForPlayAgainResponse()) {
+                played[0]++;
+                return played[0] < games ? "yes" : "no";
+            }
+            return String.valueOf(PositionCache.get().bestMove(client.boardCode()));
+        };
+    }
+}
@@ -0,0 +1,249 @@
+package com.example;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Private rooms, join-by-code and the list of who is online.
+// Rooms live in a ConcurrentHashMap like the server's games map, so room and presence lookups never
+// wait on gameplay; only taking a player out of the queue or putting them back goes through the
+// server's matchmaking lock.
+public class Lobby {
+    private static final int MAX_PAGE_SIZE = 50;
+    // no 0/O or 1/I, so codes are easy to read out
+    private static final String CODE_ALPHABET = "ABCDEFGHJKLMNPQRSTUVWXYZ23456789";
+    private static final int CODE_LENGTH = 5;
+
+    private final TicTacToeWebSocketServer server;
+    private final Random random = new SecureRandom();
+    // rooms: open rooms (join code, host)
+    private final Map<String, Player> rooms = new ConcurrentHashMap<>();
+    // presence: connected players ordered by player number, so pages are a range read instead of a scan
+    private final ConcurrentSkipListMap<Integer, Player> presence = new ConcurrentSkipListMap<>();
+    // players: the same players by connection
+    private final Map<PlayerConnection, Player> players = new ConcurrentHashMap<>();
+    private final AtomicInteger playerCounter = new AtomicInteger();
+
+    private static class Player {
+        private final int id;
+        private final PlayerConnection conn;
+        // roomCode: the room this player is hosting, or null; changed under the player's monitor, so a player
+        // who claimed the room can check that it still belongs to this host
+        private volatile String roomCode = null;
+        // connected: cleared on disconnect; guarded by the player's monitor, so a room game is never started
+        // for a player whose disconnect has already been handled
+        private boolean connected = true;
+
+        private Player(int id, PlayerConnection conn) {
+            this.id = id;
+            this.conn = conn;
+        }
+    }
+
+    public Lobby(TicTacToeWebSocketServer server) {
+        this.server = server;
+    }
+
+    public void connected(PlayerConnection conn) {
+        Player player = new Player(playerCounter.incrementAndGet(), conn);
+        players.put(conn, player);
+        presence.put(player.id, player);
+        server.sendTo(conn, "playerId", String.valueOf(player.id), "You are player #" + player.id);
+    }
+
+    public void disconnected(PlayerConnection conn) {
+        Player player = players.remove(conn);
+        if (player != null) {
+            presence.remove(player.id);
+            synchronized (player) {
+                player.connected = false;
+                closeRoom(player);
+            }
+        }
+    }
+
+    public void createRoom(PlayerConnection conn) {
+        Player player = players.get(conn);
+        if (player == null) {
+            return;
+        }
+        if (player.roomCode != null) {
+            server.sendTo(conn, "roomCreated", player.roomCode, "You are already hosting room " + player.roomCode);
+            return;
+        }
+        // only players waiting for a game can host; removing them from the queue also keeps matchmaking from taking them
+        if (!server.leaveQueue(conn)) {
+            server.sendTo(conn, "error", null, "Only players waiting for a game can create a room");
+            return;
+        }
+
+        String code;
+        synchronized (player) {
+            do {
+                code = newCode();
+            } while (rooms.putIfAbsent(code, player) != null);
+            player.roomCode = code;
+        }
+        server.sendTo(conn, "roomCreated", code, "Room " + code + " created. Share the code with a friend to play");
+    }
+
+    public void joinRoom(PlayerConnection conn, String code) {
+        String roomCode = code.toUpperCase();
+        // claiming the room by removing it means only one player can join
+        Player host = rooms.remove(roomCode);
+        if (host == null) {
+            server.sendTo(conn, "error", null, "Room " + roomCode + " not found");
+            return;
+        }
+        if (host.conn == conn) {
+            reopen(roomCode, host);
+            server.sendTo(conn, "error", null, "You can't join your own room");
+            return;
+        }
+
+        Player guest = players.get(conn);
+        if (guest == null) {
+            // the guest's connection is already gone
+            reopen(roomCode, host);
+            return;
+        }
+        // a guest hosting a room of their own is already out of the queue; that room is closed below,
+        // together with starting the game
+        boolean fromQueue = guest.roomCode == null;
+        if (fromQueue && !server.leaveQueue(conn)) {
+            reopen(roomCode, host);
+            server.sendTo(conn, "error", null, "Only players waiting for a game can join a room");
+            return;
+        }
+
+        // holds both players (lower number first, so two crossed joins can't deadlock) while the game starts
+        Player first = host.id < guest.id ? host : guest;
+        Player second = first == host ? guest : host;
+        synchronized (first) {
+            synchronized (second) {
+                // the host may have left, closed the room, or had their room taken as a guest elsewhere
+                boolean hostReady = host.connected && host.conn.isOpen() && roomCode.equals(host.roomCode);
+                if (hostReady && guest.connected && (fromQueue || claimOwnRoom(guest))) {
+                    host.roomCode = null;
+                    server.startMatch(host.conn, conn, null);
+                    return;
+                }
+                if (hostReady) {
+                    // the guest left, or a third player joined the guest's own room first; this room stays open
+                    rooms.put(roomCode, host);
+                    if (guest.connected) {
+                        server.sendTo(conn, "error", null, "Another player joined your room first");
+                    }
+                    return;
+                }
+            }
+        }
+        server.sendTo(conn, "error", null, "Room " + roomCode + " closed, the host left");
+        if (fromQueue) {
+            server.returnToQueue(conn);
+        }
+    }
+
+    // closes the player's room and puts them back in the queue
+    public void leaveRoom(PlayerConnection conn) {
+        Player player = players.get(conn);
+        boolean hosting = false;
+        if (player != null) {
+            synchronized (player) {
+                hosting = player.roomCode != null;
+                closeRoom(player);
+            }
+        }
+        if (!hosting) {
+            server.sendTo(conn, "error", null, "You are not hosting a room");
+            return;
+        }
+        server.returnToQueue(conn);
+    }
+
+    // direct challenge: opens a room for the challenger (if needed) and sends the code to the other player
+    public void invite(PlayerConnection conn, int playerId) {
+        Player player = players.get(conn);
+        Player invited = presence.get(playerId);
+        if (player == null || invited == null || invited == player) {
+            server.sendTo(conn, "error", null, "Player #" + playerId + " is not online");
+            return;
+        }
+        createRoom(conn);
+        if (player.roomCode != null) {
+            server.sendTo(invited.conn, "roomInvite", player.roomCode,
+                    "Player #" + player.id + " challenges you! Join room " + player.roomCode + " to play");
+        }
+    }
+
+    // one page of online players with numbers after the cursor, plus the cursor for the next page
+    public void listPlayers(PlayerConnection conn, int after, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        JsonArray page = new JsonArray();
+        Integer next = null;
+        for (Player player : presence.tailMap(after, false).values()) {
+            if (page.size() == pageSize) {
+                next = page.get(page.size() - 1).getAsJsonObject().get("id").getAsInt();
+                break;
+            }
+            JsonObject entry = new JsonObject();
+            entry.addProperty("id", player.id);
+            entry.addProperty("status", player.roomCode != null ? "hosting"
+                    : server.isInGame(player.conn) ? "playing" : "waiting");
+            page.add(entry);
+        }
+
+        JsonObject json = new JsonObject();
+        json.addProperty("type", "players");
+        json.add("players", page);
+        // size() of the skip list walks every entry, the hash map keeps a count
+        json.addProperty("online", players.size());
+        if (next != null) {
+            json.addProperty("next", next);
+        }
+        server.sendJson(conn, json);
+    }
+
+    // puts back a room that was claimed but couldn't be joined, unless its host has left meanwhile
+    private void reopen(String code, Player host) {
+        synchronized (host) {
+            if (host.connected) {
+                rooms.put(code, host);
+            }
+        }
+    }
+
+    // called with the guest's monitor held: takes the guest's own room off the list so they can play elsewhere;
+    // false if another player claimed it first (that player is starting a game with the guest)
+    private boolean claimOwnRoom(Player guest) {
+        String code = guest.roomCode;
+        if (code == null || !rooms.remove(code, guest)) {
+            return false;
+        }
+        guest.roomCode = null;
+        return true;
+    }
+
+    // called with the player's monitor held
+    private void closeRoom(Player player) {
+        String code = player.roomCode;
+        if (code != null) {
+            rooms.remove(code, player);
+            player.roomCode = null;
+        }
+    }
+
+    private String newCode() {
+        StringBuilder code = new StringBuilder(CODE_LENGTH);
+        for (int i = 0; i < CODE_LENGTH; i++) {
+            code.append(CODE_ALPHABET.charAt(random.nextInt(CODE_ALPHABET.length())));
+        }
+        return code.toString();
+    }
+}
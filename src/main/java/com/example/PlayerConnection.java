@@ -0,0 +1,16 @@
+package com.example;
+
+// A connected player as seen by the game logic. The server wraps each WebSocket in one of these,
+// and the simulation harness uses in-memory fakes, so games never depend on real sockets.
+public interface PlayerConnection {
+
+    void send(String text);
+
+    boolean isOpen();
+
+    // asks the transport to close; the server is told through handleClose once the connection is gone
+    void close();
+
+    // remote address (or any other label) for log messages
+    String remoteAddress();
+}
@@ -0,0 +1,103 @@
+package com.example;
+
+// Shared table of solved positions, keyed by canonical board code (see BoardPositions).
+// Tic-tac-toe has only 765 positions up to symmetry, so the whole game tree is solved once
+// when the class is first used; after that every lookup is a table read and the table is never written.
+public final class PositionCache {
+    private static final PositionCache INSTANCE = new PositionCache();
+
+    // entry layout: bits 0-1 outcome with perfect play (OUTCOME_*), bits 2-5 best move cell + 1 (0 when the game is over)
+    private static final int OUTCOME_X = 1;
+    private static final int OUTCOME_O = 2;
+    private static final int OUTCOME_DRAW = 3;
+
+    // entries and scores are indexed by canonical code, 0 means the position can't occur in a game
+    private final byte[] entries = new byte[BoardPositions.CODE_COUNT];
+    // score for the side to move: 10 - plies for a win, -(10 - plies) for a loss, 0 for a draw
+    private final byte[] scores = new byte[BoardPositions.CODE_COUNT];
+    private int positions = 0;
+
+    private PositionCache() {
+        solve(0, 0);
+    }
+
+    public static PositionCache get() {
+        return INSTANCE;
+    }
+
+    // number of distinct positions up to symmetry
+    public int size() {
+        return positions;
+    }
+
+    // best move (1-9) for the side to move on this board, or 0 if the game is over or the board is not reachable
+    public int bestMove(int code) {
+        int symmetry = BoardPositions.canonicalSymmetry(code);
+        int entry = entries[BoardPositions.transform(code, symmetry)];
+        int canonicalMove = (entry >> 2) & 0x0F;
+        if (canonicalMove == 0) {
+            return 0;
+        }
+        // map the move on the canonical board back onto this board's orientation
+        return BoardPositions.SYMMETRIES[symmetry][canonicalMove - 1] + 1;
+    }
+
+    // "X", "O" or "draw" with perfect play from this board, or null if the board is not reachable
+    public String outcome(int code) {
+        switch (entries[BoardPositions.canonical(code)] & 0x03) {
+            case OUTCOME_X:
+                return "X";
+            case OUTCOME_O:
+                return "O";
+            case OUTCOME_DRAW:
+                return "draw";
+            default:
+                return null;
+        }
+    }
+
+    // negamax over the game tree, memoized by canonical code
+    private int solve(int code, int plies) {
+        int key = BoardPositions.canonical(code);
+        if (entries[key] != 0) {
+            return scores[key];
+        }
+        positions++;
+
+        int side = BoardPositions.sideToMove(code);
+        String winner = BoardPositions.winner(code);
+        int score;
+        int bestMove = -1;
+        if (winner != null) {
+            // the previous move ended the game, so the side to move has lost or drawn
+            score = "draw".equals(winner) ? 0 : -(10 - plies);
+        } else {
+            score = Integer.MIN_VALUE;
+            int canonicalSymmetry = BoardPositions.canonicalSymmetry(code);
+            for (int i = 0; i < 9; i++) {
+                int cell = BoardPositions.SYMMETRIES[canonicalSymmetry][i];
+                if (BoardPositions.cell(code, cell) != BoardPositions.EMPTY) {
+                    continue;
+                }
+                // moves are tried in canonical cell order so the stored move refers to the canonical board
+                int childScore = -solve(BoardPositions.withCell(code, cell, side), plies + 1);
+                if (childScore > score) {
+                    score = childScore;
+                    bestMove = i;
+                }
+            }
+        }
+
+        int outcome;
+        if (score == 0) {
+            outcome = OUTCOME_DRAW;
+        } else if ((score > 0) == (side == BoardPositions.X)) {
+            outcome = OUTCOME_X;
+        } else {
+            outcome = OUTCOME_O;
+        }
+        scores[key] = (byte) score;
+        entries[key] = (byte) (outcome | (bestMove + 1) << 2);
+        return score;
+    }
+}
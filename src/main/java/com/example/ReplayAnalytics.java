@@ -0,0 +1,126 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Offline analytics over the segment files written by GameRecorder.
+// Segments are decoded in parallel and their statistics merged at the end.
+//
+// Usage: java -cp websocket-tictactoe.jar com.example.ReplayAnalytics [replay dir]
+public class ReplayAnalytics {
+
+    // statistics for any number of games; one per segment, merged pairwise
+    static class Stats {
+        private long games = 0;
+        // corrupt: records skipped because they don't decode to a game
+        private long corrupt = 0;
+        private long totalMoves = 0;
+        private final long[] outcomes = new long[3];
+        // openings[firstMove - 1][outcome]
+        private final long[][] openings = new long[9][3];
+
+        void add(byte[] data, int offset) {
+            if (!GameRecorder.isValid(data, offset)) {
+                corrupt++;
+                return;
+            }
+            int moveCount = GameRecorder.moveCount(data[offset]);
+            int outcome = GameRecorder.outcome(data[offset]);
+            games++;
+            totalMoves += moveCount;
+            outcomes[outcome]++;
+            if (moveCount > 0) {
+                openings[GameRecorder.move(data, offset, 0) - 1][outcome]++;
+            }
+        }
+
+        Stats merge(Stats other) {
+            Stats merged = new Stats();
+            merged.games = games + other.games;
+            merged.corrupt = corrupt + other.corrupt;
+            merged.totalMoves = totalMoves + other.totalMoves;
+            for (int o = 0; o < 3; o++) {
+                merged.outcomes[o] = outcomes[o] + other.outcomes[o];
+                for (int p = 0; p < 9; p++) {
+                    merged.openings[p][o] = openings[p][o] + other.openings[p][o];
+                }
+            }
+            return merged;
+        }
+    }
+
+    static Stats analyzeSegment(Path segment) {
+        Stats stats = new Stats();
+        byte[] data;
+        try {
+            data = Files.readAllBytes(segment);
+        } catch (IOException e) {
+            System.out.println("Skipping unreadable segment " + segment + ": " + e.getMessage());
+            return stats;
+        }
+
+        int offset = 0;
+        while (offset < data.length) {
+            int length = GameRecorder.recordLength(data[offset]);
+            if (offset + length > data.length) {
+                // partially written record at the end of a segment
+                break;
+            }
+            stats.add(data, offset);
+            offset += length;
+        }
+        return stats;
+    }
+
+    static Stats analyze(Path directory) throws IOException {
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.filter(path -> path.getFileName().toString().endsWith(GameRecorder.SEGMENT_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        return segments.parallelStream()
+                .map(ReplayAnalytics::analyzeSegment)
+                .reduce(new Stats(), Stats::merge);
+    }
+
+    private static String percent(long count, long total) {
+        return total == 0 ? "-" : String.format("%.1f%%", 100.0 * count / total);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args.length > 0 ? args[0] : "replays");
+
+        long start = System.nanoTime();
+        Stats stats = analyze(directory);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println("Games: " + stats.games + " (analyzed in " + millis + " ms)");
+        if (stats.corrupt > 0) {
+            System.out.println("Skipped " + stats.corrupt + " corrupt records");
+        }
+        if (stats.games == 0) {
+            return;
+        }
+        System.out.println(String.format("Average game length: %.2f moves", (double) stats.totalMoves / stats.games));
+        System.out.println("X wins: " + percent(stats.outcomes[GameRecorder.OUTCOME_X], stats.games)
+                + ", O wins: " + percent(stats.outcomes[GameRecorder.OUTCOME_O], stats.games)
+                + ", draws: " + percent(stats.outcomes[GameRecorder.OUTCOME_DRAW], stats.games));
+
+        System.out.println();
+        System.out.println("Opening   Games       X wins   O wins   Draws");
+        for (int p = 0; p < 9; p++) {
+            long[] counts = stats.openings[p];
+            long games = counts[0] + counts[1] + counts[2];
+            System.out.println(String.format("  %d     %10d   %6s   %6s   %6s", p + 1, games,
+                    percent(counts[GameRecorder.OUTCOME_X], games),
+                    percent(counts[GameRecorder.OUTCOME_O], games),
+                    percent(counts[GameRecorder.OUTCOME_DRAW], games)));
+        }
+    }
+}
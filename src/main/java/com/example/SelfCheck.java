@@ -0,0 +1,138 @@
+package com.example;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+// Checks run by the build (mvn test runs this class, see pom.xml):
+// - every possible game survives a round trip through the replay record format
+// - the solved-position table has a legal best move for every reachable position, and playing it keeps the outcome
+// - the deterministic simulation leaves the server empty, and two runs with the same seed send the same messages
+// Exits with status 1 if any check fails.
+//
+// Usage: java -cp websocket-tictactoe.jar com.example.SelfCheck [--sessions N] [--seed S]
+public class SelfCheck {
+    // all move sequences of tic-tac-toe that end the game
+    private static final int GAME_COUNT = 255168;
+    // positions up to symmetry, including the empty board
+    private static final int POSITION_COUNT = 765;
+
+    private int failures = 0;
+    private int games = 0;
+    private int positions = 0;
+
+    private void check(boolean condition, String description) {
+        if (!condition) {
+            failures++;
+            // the first few are enough to find the bug, and a broken table would print thousands
+            if (failures <= 20) {
+                System.out.println("FAILED: " + description);
+            }
+        }
+    }
+
+    // walks the whole game tree, checking every position on the way and every finished game
+    private void walk(int code, byte[] moves, int moveCount) {
+        positions++;
+        PositionCache table = PositionCache.get();
+        String winner = BoardPositions.winner(code);
+        String outcome = table.outcome(code);
+        int bestMove = table.bestMove(code);
+
+        if (winner != null) {
+            check(winner.equals(outcome), "outcome of finished board " + code + " is " + outcome + ", not " + winner);
+            check(bestMove == 0, "finished board " + code + " has best move " + bestMove);
+            checkRecord(moves, moveCount, winner);
+            return;
+        }
+
+        int side = BoardPositions.sideToMove(code);
+        check(outcome != null, "reachable board " + code + " has no outcome");
+        if (bestMove < 1 || bestMove > 9 || BoardPositions.cell(code, bestMove - 1) != BoardPositions.EMPTY) {
+            check(false, "board " + code + " has illegal best move " + bestMove);
+        } else {
+            int next = BoardPositions.withCell(code, bestMove - 1, side);
+            check(outcome != null && outcome.equals(table.outcome(next)),
+                    "best move " + bestMove + " on board " + code + " changes the outcome " + outcome);
+        }
+
+        for (int cell = 0; cell < 9; cell++) {
+            if (BoardPositions.cell(code, cell) == BoardPositions.EMPTY) {
+                moves[moveCount] = (byte) (cell + 1);
+                walk(BoardPositions.withCell(code, cell, side), moves, moveCount + 1);
+            }
+        }
+    }
+
+    private void checkRecord(byte[] moves, int moveCount, String winner) {
+        games++;
+        byte[] record = new byte[GameRecorder.MAX_RECORD_BYTES];
+        int outcome = GameRecorder.outcomeCode(winner);
+        int length = GameRecorder.encode(moves, moveCount, outcome, record);
+
+        boolean same = length == GameRecorder.recordLength(record[0])
+                && GameRecorder.moveCount(record[0]) == moveCount
+                && GameRecorder.outcome(record[0]) == outcome
+                && GameRecorder.isValid(record, 0);
+        for (int i = 0; same && i < moveCount; i++) {
+            same = GameRecorder.move(record, 0, i) == moves[i];
+        }
+        check(same, "game " + movesToString(moves, moveCount) + " (" + winner + ") doesn't survive a record round trip");
+    }
+
+    private static String movesToString(byte[] moves, int moveCount) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < moveCount; i++) {
+            text.append(moves[i]);
+        }
+        return text.toString();
+    }
+
+    private void checkSimulation(int sessions, long seed) {
+        // the server logs every message, which would bury the results
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ServerSimulation first = new ServerSimulation(sessions, seed);
+        ServerSimulation second = new ServerSimulation(sessions, seed);
+        boolean firstClean;
+        boolean secondClean;
+        try {
+            firstClean = first.run();
+            secondClean = second.run();
+        } finally {
+            System.setOut(console);
+        }
+        check(firstClean && secondClean, "simulation of " + sessions + " sessions (seed " + seed + ") left the server with "
+                + first.leftovers());
+        check(first.checksum() == second.checksum(), "two simulations with seed " + seed + " sent different messages");
+        System.out.println("Simulation: " + sessions + " sessions (seed " + seed + "), checksum "
+                + Long.toHexString(first.checksum()));
+    }
+
+    public static void main(String[] args) {
+        int sessions = 5_000;
+        long seed = 1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if ("--sessions".equals(args[i])) {
+                sessions = Integer.parseInt(args[i + 1]);
+            } else if ("--seed".equals(args[i])) {
+                seed = Long.parseLong(args[i + 1]);
+            }
+        }
+
+        SelfCheck selfCheck = new SelfCheck();
+        selfCheck.walk(0, new byte[9], 0);
+        selfCheck.check(selfCheck.games == GAME_COUNT, "walked " + selfCheck.games + " games, expected " + GAME_COUNT);
+        selfCheck.check(PositionCache.get().size() == POSITION_COUNT,
+                "position table has " + PositionCache.get().size() + " positions, expected " + POSITION_COUNT);
+        selfCheck.check("draw".equals(PositionCache.get().outcome(0)), "the empty board is not a draw with perfect play");
+        System.out.println("Records and position table: " + selfCheck.games + " games, " + selfCheck.positions + " boards");
+
+        selfCheck.checkSimulation(sessions, seed);
+
+        if (selfCheck.failures > 0) {
+            System.out.println(selfCheck.failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+}
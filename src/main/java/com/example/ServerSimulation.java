@@ -0,0 +1,276 @@
+package com.example;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.*;
+
+// Deterministic simulation of the server without sockets.
+// Scripted players connect through in-memory connections, and every delay (server timers, player
+// think time, arrivals) runs on a virtual clock on a single thread, so a given seed always produces
+// the same sequence of messages. At the end every player disconnects and the server must be empty.
+//
+// Usage: java -cp websocket-tictactoe.jar com.example.ServerSimulation [--sessions N] [--seed S]
+// (exits with status 1 if the server leaked anything, so scripts can use it as a check)
+public class ServerSimulation {
+
+    // runs tasks in time order (ties in the order they were scheduled), all on the calling thread
+    static class VirtualClock implements TicTacToeWebSocketServer.TaskScheduler {
+        private static class Event {
+            private final long time;
+            private final long sequence;
+            private final Runnable task;
+
+            private Event(long time, long sequence, Runnable task) {
+                this.time = time;
+                this.sequence = sequence;
+                this.task = task;
+            }
+        }
+
+        private final PriorityQueue<Event> events = new PriorityQueue<>(
+                Comparator.comparingLong((Event e) -> e.time).thenComparingLong(e -> e.sequence));
+        private long now = 0;
+        private long sequence = 0;
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            events.add(new Event(now + delayMillis, sequence++, task));
+        }
+
+        long now() {
+            return now;
+        }
+
+        // runs events until there are none left
+        void run() {
+            while (!events.isEmpty()) {
+                Event event = events.poll();
+                now = event.time;
+                event.task.run();
+            }
+        }
+    }
+
+    private final VirtualClock clock = new VirtualClock();
+    private final TicTacToeWebSocketServer server =
+            new TicTacToeWebSocketServer(new InetSocketAddress(0), clock, null);
+    private final Random random;
+    private final int sessions;
+    // connected: players whose connection is still open, in connection order
+    private final Set<SimulatedPlayer> connected = new LinkedHashSet<>();
+
+    private int nextPlayerId = 0;
+    private long messages = 0;
+    private long moves = 0;
+    private long games = 0;
+    private long hints = 0;
+    private long errors = 0;
+    private long dropped = 0;
+    // checksum over every message the server sent, to compare runs with the same seed
+    private long checksum = 0;
+
+    public ServerSimulation(int sessions, long seed) {
+        this.sessions = sessions;
+        this.random = new Random(seed);
+    }
+
+    // A scripted player: plays a random number of games with a mix of random and perfect moves,
+    // sometimes asks for hints, and sometimes drops its connection in the middle of a game.
+    private class SimulatedPlayer implements PlayerConnection {
+        private final int id = nextPlayerId++;
+        private final int gamesWanted = 1 + random.nextInt(3);
+        private boolean open = true;
+        private int gamesPlayed = 0;
+        private String symbol = null;
+        private final String[] board = new String[9];
+        // version: bumped on every board update so stale scheduled moves are skipped
+        private int version = 0;
+
+        @Override
+        public void send(String text) {
+            messages++;
+            checksum = checksum * 31 + text.hashCode();
+            JsonObject message = JsonParser.parseString(text).getAsJsonObject();
+            String type = message.get("type").getAsString();
+
+            if ("playerAssigned".equals(type)) {
+                symbol = message.get("data").getAsString();
+            } else if ("gameState".equals(type)) {
+                version++;
+                JsonArray boardArray = message.getAsJsonArray("board");
+                for (int i = 0; i < 9; i++) {
+                    board[i] = boardArray.get(i).getAsString();
+                }
+                boolean myTurn = message.get("gameStarted").getAsBoolean() && !message.get("gameEnded").getAsBoolean()
+                        && message.get("currentTurn").getAsString().equals(symbol);
+                if (myTurn) {
+                    int expected = version;
+                    clock.schedule(() -> takeTurn(expected), thinkTime());
+                }
+            } else if ("gameEnd".equals(type)) {
+                if ("X".equals(symbol)) {
+                    games++;
+                }
+            } else if ("askPlayAgain".equals(type)) {
+                gamesPlayed++;
+                boolean again = gamesPlayed < gamesWanted;
+                clock.schedule(() -> sendAction("playAgain", "response", again), thinkTime());
+            } else if ("playerDisconnected".equals(type)) {
+                // the opponent left, so this player leaves too
+                clock.schedule(this::close, thinkTime());
+            } else if ("hint".equals(type)) {
+                hints++;
+            } else if ("error".equals(type)) {
+                errors++;
+            }
+        }
+
+        private void takeTurn(int expected) {
+            if (!open || version != expected) {
+                return;
+            }
+            if (random.nextInt(100) < 2) {
+                dropped++;
+                close();
+                return;
+            }
+            if (random.nextInt(10) == 0) {
+                sendAction("hint", null, false);
+            }
+
+            int position;
+            if (random.nextBoolean()) {
+                position = PositionCache.get().bestMove(BoardPositions.encode(board));
+            } else {
+                List<Integer> free = new ArrayList<>();
+                for (int i = 0; i < 9; i++) {
+                    if (!"X".equals(board[i]) && !"O".equals(board[i])) {
+                        free.add(i + 1);
+                    }
+                }
+                position = free.get(random.nextInt(free.size()));
+            }
+            moves++;
+            JsonObject json = new JsonObject();
+            json.addProperty("action", "makeMove");
+            json.addProperty("position", position);
+            server.handleMessage(this, json.toString());
+        }
+
+        private void sendAction(String action, String key, boolean value) {
+            if (!open) {
+                return;
+            }
+            JsonObject json = new JsonObject();
+            json.addProperty("action", action);
+            if (key != null) {
+                json.addProperty(key, value);
+            }
+            server.handleMessage(this, json.toString());
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            if (!open) {
+                return;
+            }
+            open = false;
+            connected.remove(this);
+            // like a real socket, the server hears about the close asynchronously
+            clock.schedule(() -> server.handleClose(this), 0);
+        }
+
+        @Override
+        public String remoteAddress() {
+            return "sim-" + id;
+        }
+    }
+
+    private long thinkTime() {
+        return 100 + random.nextInt(2000);
+    }
+
+    private void arrive(int remaining) {
+        if (remaining == 0) {
+            return;
+        }
+        SimulatedPlayer player = new SimulatedPlayer();
+        connected.add(player);
+        server.handleOpen(player);
+        clock.schedule(() -> arrive(remaining - 1), random.nextInt(20));
+    }
+
+    // returns true if the server ended up empty
+    public boolean run() {
+        clock.schedule(() -> arrive(sessions), 0);
+        clock.run();
+
+        // players left waiting in the queue (e.g. the last odd one out) disconnect
+        for (SimulatedPlayer player : new ArrayList<>(connected)) {
+            player.close();
+        }
+        clock.run();
+
+        return server.activeGames() == 0 && server.queuedPlayers() == 0 && server.playersInGames() == 0;
+    }
+
+    long checksum() {
+        return checksum;
+    }
+
+    // what the server still holds after run()
+    String leftovers() {
+        return "games=" + server.activeGames() + " queued=" + server.queuedPlayers() + " inGames=" + server.playersInGames();
+    }
+
+    public static void main(String[] args) {
+        int sessions = 100_000;
+        long seed = 1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if ("--sessions".equals(args[i])) {
+                sessions = Integer.parseInt(args[i + 1]);
+            } else if ("--seed".equals(args[i])) {
+                seed = Long.parseLong(args[i + 1]);
+            }
+        }
+
+        ServerSimulation simulation = new ServerSimulation(sessions, seed);
+        // the server logs every message, which would dominate the run
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long start = System.nanoTime();
+        boolean clean;
+        try {
+            clean = simulation.run();
+        } finally {
+            System.setOut(console);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println("Sessions:      " + sessions + " (seed " + seed + ")");
+        System.out.println("Games:         " + simulation.games);
+        System.out.println("Moves:         " + simulation.moves);
+        System.out.println("Hints:         " + simulation.hints);
+        System.out.println("Dropped:       " + simulation.dropped + " connections closed mid-game");
+        System.out.println("Messages:      " + simulation.messages + " sent by the server");
+        System.out.println("Errors:        " + simulation.errors + " error replies");
+        System.out.println("Virtual time:  " + simulation.clock.now() / 1000 + " s");
+        System.out.println(String.format("Wall time:     %.2f s (%.0f sessions/s, %.0f moves/s, %.0f messages/s)",
+                seconds, sessions / seconds, simulation.moves / seconds, simulation.messages / seconds));
+        System.out.println("Checksum:      " + Long.toHexString(simulation.checksum));
+        System.out.println("Server state:  " + (clean ? "empty" : "LEAKED " + simulation.leftovers()));
+        if (!clean) {
+            System.exit(1);
+        }
+    }
+}
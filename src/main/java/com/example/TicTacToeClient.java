@@ -1,14 +1,20 @@
 package com.example;
 
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
 import org.java_websocket.handshake.ServerHandshake;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 
 import java.net.URI;
-import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class TicTacToeClient extends WebSocketClient {
     private final Gson gson = new Gson();
@@ -21,14 +27,46 @@ public class TicTacToeClient extends WebSocketClient {
     private boolean inQueue = false;
     private String currentGameId = null;
     private boolean waitingForPlayAgainResponse = false;
-    private Scanner scanner = new Scanner(System.in);
     private boolean shouldQuit = false;
 
+    // interactive: a single console session, which prints to stdout and exits the JVM when the connection closes
+    private final boolean interactive;
+    // connected: completed by the handshake, or failed if the connection can't be established
+    private final CompletableFuture<Void> connected = new CompletableFuture<>();
+    // state is updated by the socket thread and read by the input thread, both under stateLock
+    // (a ReentrantLock rather than synchronized, so a session waiting for a prompt doesn't pin its virtual thread's carrier)
+    private final ReentrantLock stateLock = new ReentrantLock();
+    // stateChanged: signalled after every server message and on close
+    private final Condition stateChanged = stateLock.newCondition();
+    // promptVersion: bumped whenever the server may expect input (board update, play again question)
+    private long promptVersion = 0;
+    private long answeredVersion = 0;
+
     public TicTacToeClient(URI serverURI) {
-        super(serverURI);
+        this(serverURI, true);
+    }
+
+    public TicTacToeClient(URI serverURI, boolean interactive) {
+        this(serverURI, interactive, new Draft_6455());
+    }
+
+    // draft: e.g. a Draft_6455 with a PerMessageDeflateExtension to ask the server for compression
+    public TicTacToeClient(URI serverURI, boolean interactive, Draft draft) {
+        super(serverURI, draft);
+        this.interactive = interactive;
+        if (!interactive) {
+            // the server already pings every client; the client side check would start one more platform thread per session
+            setConnectionLostTimeout(0);
+        }
         initializeBoard();
     }
 
+    private void log(String text) {
+        if (interactive) {
+            System.out.println(text);
+        }
+    }
+
     private void initializeBoard() {
         for (int i = 0; i < 9; i++) {
             board[i] = String.valueOf(i + 1);
@@ -38,7 +76,8 @@ public class TicTacToeClient extends WebSocketClient {
     // when web socket connection is successful
     @Override
     public void onOpen(ServerHandshake handshake) {
-        System.out.println("Connected to server");
+        log("Connected to server");
+        connected.complete(null);
     }
 
     // when we receive a message from the server
@@ -46,23 +85,40 @@ public class TicTacToeClient extends WebSocketClient {
     public void onMessage(String message) {
         try {
             JsonObject json = JsonParser.parseString(message).getAsJsonObject();
-            handleMessage(json);
+            stateLock.lock();
+            try {
+                handleMessage(json);
+                stateChanged.signalAll();
+            } finally {
+                stateLock.unlock();
+            }
         } catch (Exception e) {
-            System.out.println("Error parsing message: " + e.getMessage());
+            log("Error parsing message: " + e.getMessage());
         }
     }
 
     // when the web socket connection is closed
     @Override
     public void onClose(int code, String reason, boolean remote) {
-        System.out.println("Connection closed " + reason);
-        System.exit(0); // terminates the application
+        log("Connection closed " + reason);
+        connected.completeExceptionally(new IllegalStateException("Connection closed " + reason));
+        stateLock.lock();
+        try {
+            shouldQuit = true;
+            stateChanged.signalAll();
+        } finally {
+            stateLock.unlock();
+        }
+        if (interactive) {
+            System.exit(0); // terminates the application
+        }
     }
 
     // when the web socket encounters an error
     @Override
     public void onError(Exception e) {
-        System.out.println("Connection error: " + e.getMessage());
+        log("Connection error: " + e.getMessage());
+        connected.completeExceptionally(e);
     }
 
     // to process different types of messages from the server
@@ -75,7 +131,7 @@ public class TicTacToeClient extends WebSocketClient {
                 // gets the assigned symbol from the msg
                 playerSymbol = message.get("data").getAsString();
                 inQueue = false;
-                System.out.println("You are Player " + playerSymbol);
+                log("You are Player " + playerSymbol);
                 break;
 
                 // to handle queue status update
@@ -84,7 +140,7 @@ public class TicTacToeClient extends WebSocketClient {
                     inQueue = true;
                     playerSymbol = null;
                 }
-                System.out.println(message.get("message").getAsString());
+                log(message.get("message").getAsString());
                 break;
 
                 // to handle game state updates and turn updates
@@ -92,6 +148,7 @@ public class TicTacToeClient extends WebSocketClient {
                 // updates client side variables
                 updateGameState(message);
                 displayBoard();
+                promptVersion++;
                 if (gameStarted && !gameEnded && !inQueue && playerSymbol != null) {
                     checkTurn();
                 }
@@ -99,7 +156,7 @@ public class TicTacToeClient extends WebSocketClient {
 
                 // to tell users when the game starts
             case "gameStart":
-                System.out.println("\nGame started");
+                log("\nGame started");
                 break;
 
                 // to handle game completion
@@ -107,23 +164,24 @@ public class TicTacToeClient extends WebSocketClient {
                 // update variables, then display final board
                 updateGameState(message);
                 displayBoard();
-                System.out.println("\n"+message.get("message").getAsString());
+                log("\n"+message.get("message").getAsString());
                 break;
 
                 // to handle the servers play again prompt
             case "askPlayAgain":
                 waitingForPlayAgainResponse = true;
-                System.out.println("\nDo you want to play another game? (yes/no)");
+                promptVersion++;
+                log("\nDo you want to play another game? (yes/no)");
                 break;
 
                 // to confirm server received play-again response
             case "responseReceived":
                 waitingForPlayAgainResponse = false;
-                System.out.println(message.get("message").getAsString());
+                log(message.get("message").getAsString());
                 if (message.get("message").getAsString().contains("stop playing")) {
                     shouldQuit = true;
                 } else {
-                    System.out.println("Waiting for other player's response...");
+                    log("Waiting for other player's response...");
                 }
                 break;
 
@@ -134,12 +192,14 @@ public class TicTacToeClient extends WebSocketClient {
                 currentGameId = null;
                 waitingForPlayAgainResponse = false;
                 shouldQuit = true;
-                System.out.println(message.get("message").getAsString());
+                log(message.get("message").getAsString());
                 try {
                     close();
                 } catch (Exception e) {
                 }
-                System.exit(0);
+                if (interactive) {
+                    System.exit(0);
+                }
                 break;
 
                 // handles when the player should return to queue for matchmaking
@@ -148,22 +208,56 @@ public class TicTacToeClient extends WebSocketClient {
                 playerSymbol = null;
                 currentGameId = null;
                 waitingForPlayAgainResponse = false;
-                System.out.println("Back in queue for new game");
+                log("Back in queue for new game");
                 break;
 
                 // to notify the user when the game is reset
             case "gameReset":
-                System.out.println("Game reset");
+                log("Game reset");
                 break;
 
                 // to notify when the opponent disconnects
             case "playerDisconnected":
-                System.out.println(message.get("message").getAsString());
+                log(message.get("message").getAsString());
+                break;
+
+                // to display lobby messages
+            case "playerId":
+            case "roomCreated":
+            case "roomInvite":
+                log(message.get("message").getAsString());
+                break;
+
+                // to display a page of online players
+            case "players":
+                log("Online players (" + message.get("online").getAsInt() + "):");
+                for (JsonElement entry : message.getAsJsonArray("players")) {
+                    JsonObject player = entry.getAsJsonObject();
+                    log("  #" + player.get("id").getAsInt() + " " + player.get("status").getAsString());
+                }
+                if (message.has("next")) {
+                    log("More players: 'who " + message.get("next").getAsInt() + "'");
+                }
+                break;
+
+                // to display a hint from the server
+            case "hint":
+                log(message.get("message").getAsString() + " - hints left: " + message.get("hintsLeft").getAsInt());
+                break;
+
+                // to display tournament progress
+            case "tournamentJoined":
+            case "tournamentRound":
+            case "tournamentBye":
+            case "matchWon":
+            case "eliminated":
+            case "tournamentWon":
+                log(message.get("message").getAsString());
                 break;
 
                 // to display error msg from server
             case "error":
-                System.out.println(message.get("message").getAsString());
+                log(message.get("message").getAsString());
                 break;
         }
     }
@@ -205,22 +299,22 @@ public class TicTacToeClient extends WebSocketClient {
     }
 
     private void displayBoard() {
-        System.out.println("\nCurrent Board (Game #" + currentGameId + "):");
-
-        System.out.println(" " + board[0] + " | " + board[1] + " | " + board[2]);
-        System.out.println("---|---|---");
-        System.out.println(" " + board[3] + " | " + board[4] + " | " + board[5]);
-        System.out.println("---|---|---");
-        System.out.println(" " + board[6] + " | " + board[7] + " | " + board[8]);
-        System.out.println();
+        log("\nCurrent Board (Game #" + currentGameId + "):");
+
+        log(" " + board[0] + " | " + board[1] + " | " + board[2]);
+        log("---|---|---");
+        log(" " + board[3] + " | " + board[4] + " | " + board[5]);
+        log("---|---|---");
+        log(" " + board[6] + " | " + board[7] + " | " + board[8]);
+        log("");
     }
 
     private void checkTurn() {
         if (currentTurn.equals(playerSymbol)) {
-            System.out.println("It's your turn! Enter position (1-9):");
+            log("It's your turn! Enter position (1-9):");
         } else {
             String otherPlayer = currentTurn.equals("X") ? "X" : "O";
-            System.out.println("Waiting for Player " + otherPlayer + "...");
+            log("Waiting for Player " + otherPlayer + "...");
         }
     }
 
@@ -248,90 +342,233 @@ public class TicTacToeClient extends WebSocketClient {
         send(gson.toJson(message));
     }
 
+    // to ask the server for the best move
+    private void sendHint() {
+        JsonObject message = new JsonObject();
+        message.addProperty("action", "hint");
+        send(gson.toJson(message));
+    }
+
+    // to register for the next tournament
+    private void sendJoinTournament() {
+        JsonObject message = new JsonObject();
+        message.addProperty("action", "joinTournament");
+        send(gson.toJson(message));
+    }
+
+    // to send a lobby action with an optional parameter
+    private void sendLobbyAction(String action, String key, String value) {
+        JsonObject message = new JsonObject();
+        message.addProperty("action", action);
+        if (key != null) {
+            message.addProperty(key, value);
+        }
+        send(gson.toJson(message));
+    }
+
+    // to send a lobby action with a numeric parameter
+    private void sendLobbyAction(String action, String key, int value) {
+        JsonObject message = new JsonObject();
+        message.addProperty("action", action);
+        message.addProperty(key, value);
+        send(gson.toJson(message));
+    }
+
     // main user interaction loop
     public void startGameLoop() {
         System.out.println("Tic Tac Toe Client");
-        System.out.println("Commands: 1-9 (move), 'reset' (reset game), 'yes'/'no' (after game), 'quit' (exit)");
+        System.out.println("Commands: 1-9 (move), 'reset' (reset game), 'hint' (best move), 'tournament' (join tournament), 'yes'/'no' (after game), 'quit' (exit)");
+        System.out.println("Lobby: 'room' (create room), 'join <code>', 'leave' (close room), 'who' (online players), 'challenge <player>'");
         System.out.println();
 
+        play(InputSource.stdin());
+    }
+
+    // feeds commands from the input source until it runs out, the player quits or the connection closes
+    public void play(InputSource input) {
         // while connected and not quitting
-        while (isOpen() && !shouldQuit) {
+        while (isOpen() && !isFinished()) {
+            String line;
             try {
-                String input = scanner.nextLine().trim();
+                line = input.nextLine(this);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log("Error reading input. Try again.");
+                continue;
+            }
+
+            if (line == null) {
+                // input source is exhausted
+                close();
+                break;
+            }
+            if (!handleInput(line.trim())) {
+                break;
+            }
+        }
+    }
 
-                if ("quit".equalsIgnoreCase(input)) {
+    // handles one command, returns false when the session should stop reading input
+    public boolean handleInput(String input) {
+        stateLock.lock();
+        try {
+            if ("quit".equalsIgnoreCase(input)) {
+                close();
+                return false;
+            } else if ("yes".equalsIgnoreCase(input)) {
+                if (waitingForPlayAgainResponse) {
+                    sendContinueResponse(true);
+                } else {
+                    log("No question pending.");
+                }
+            } else if ("no".equalsIgnoreCase(input)) {
+                if (waitingForPlayAgainResponse) {
+                    sendContinueResponse(false);
+                    shouldQuit = true;
+                    log("Exiting game...");
                     close();
-                    break;
-                } else if ("yes".equalsIgnoreCase(input)) {
-                    if (waitingForPlayAgainResponse) {
-                        sendContinueResponse(true);
-                    } else {
-                        System.out.println("No question pending.");
-                    }
-                } else if ("no".equalsIgnoreCase(input)) {
-                    if (waitingForPlayAgainResponse) {
-                        sendContinueResponse(false);
-                        shouldQuit = true;
-                        System.out.println("Exiting game...");
-                        close();
-                        break; // exit while loop
-                    } else {
-                        System.out.println("No question pending.");
-                    }
-                } else if ("reset".equalsIgnoreCase(input)) {
-                    if (!inQueue && playerSymbol != null) {
-                        sendResetGame();
-                    } else {
-                        System.out.println("Cannot reset - not in active game.");
-                    }
-                } else if (input.matches("[1-9]")) {
-                    int position = Integer.parseInt(input);
-                    if (gameStarted && !gameEnded && !inQueue && playerSymbol != null && currentTurn.equals(playerSymbol)) {
-                        sendMove(position);
-                    } else if (gameEnded) {
-                        System.out.println("Game ended. Wait for new game");
-                    } else if (inQueue) {
-                        System.out.println("You're in queue. Please wait");
-                    } else if (playerSymbol == null) {
-                        System.out.println("Not in game. Please wait");
-                    } else if (!currentTurn.equals(playerSymbol)) {
-                        System.out.println("Not your turn.");
-                    } else {
-                        System.out.println("Game hasn't started yet.");
-                    }
+                    return false; // exit input loop
+                } else {
+                    log("No question pending.");
                 }
-                // if input is present
-                else if (!input.isEmpty()) {
-                    if (waitingForPlayAgainResponse) {
-                        System.out.println("Please answer 'yes' or 'no'.");
-                    } else {
-                        System.out.println("Invalid input. Use 1-9, 'reset', 'yes'/'no', or 'quit'.");
-                    }
+            } else if ("reset".equalsIgnoreCase(input)) {
+                if (!inQueue && playerSymbol != null) {
+                    sendResetGame();
+                } else {
+                    log("Cannot reset - not in active game.");
+                }
+            } else if ("hint".equalsIgnoreCase(input)) {
+                if (gameStarted && !gameEnded && playerSymbol != null && currentTurn.equals(playerSymbol)) {
+                    sendHint();
+                } else {
+                    log("Hints are only available on your turn.");
+                }
+            } else if ("tournament".equalsIgnoreCase(input)) {
+                if (playerSymbol == null) {
+                    sendJoinTournament();
+                } else {
+                    log("Finish your current game first, or reconnect with --tournament.");
+                }
+            } else if ("room".equalsIgnoreCase(input)) {
+                sendLobbyAction("createRoom", null, null);
+            } else if (input.toLowerCase().startsWith("join ")) {
+                sendLobbyAction("joinRoom", "code", input.substring(5).trim());
+            } else if ("leave".equalsIgnoreCase(input)) {
+                sendLobbyAction("leaveRoom", null, null);
+            } else if (input.matches("(?i)who( \\d{1,9})?")) {
+                sendLobbyAction("listPlayers", "after", input.length() > 3 ? Integer.parseInt(input.substring(4)) : 0);
+            } else if (input.matches("(?i)challenge \\d{1,9}")) {
+                sendLobbyAction("invite", "playerId", Integer.parseInt(input.substring(10)));
+            } else if (input.matches("[1-9]")) {
+                int position = Integer.parseInt(input);
+                if (gameStarted && !gameEnded && !inQueue && playerSymbol != null && currentTurn.equals(playerSymbol)) {
+                    sendMove(position);
+                } else if (gameEnded) {
+                    log("Game ended. Wait for new game");
+                } else if (inQueue) {
+                    log("You're in queue. Please wait");
+                } else if (playerSymbol == null) {
+                    log("Not in game. Please wait");
+                } else if (!currentTurn.equals(playerSymbol)) {
+                    log("Not your turn.");
+                } else {
+                    log("Game hasn't started yet.");
                 }
-            } catch (Exception e) {
-                System.out.println("Error reading input. Try again.");
             }
+            // if input is present
+            else if (!input.isEmpty()) {
+                if (waitingForPlayAgainResponse) {
+                    log("Please answer 'yes' or 'no'.");
+                } else {
+                    log("Invalid input. Use 1-9, 'reset', 'hint', 'tournament', 'room', 'join <code>', 'who', 'yes'/'no', or 'quit'.");
+                }
+            }
+        } finally {
+            stateLock.unlock();
         }
+        return true;
     }
 
-    public static void main(String[] args) {
+    // blocks until the server expects input that hasn't been answered yet; returns false once the session is over
+    public boolean awaitPrompt() throws InterruptedException {
+        stateLock.lock();
         try {
-            URI serverURI = new URI("wss://tic-tac-toe-0lam.onrender.com");
+            while (!isFinished() && (promptVersion == answeredVersion || !(isMyTurn() || waitingForPlayAgainResponse))) {
+                // the timeout only guards against missing a close that didn't signal
+                stateChanged.await(1, TimeUnit.SECONDS);
+            }
+            answeredVersion = promptVersion;
+            return !isFinished();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    public boolean isMyTurn() {
+        stateLock.lock();
+        try {
+            return gameStarted && !gameEnded && !inQueue && playerSymbol != null && currentTurn.equals(playerSymbol);
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    public boolean isWaitingForPlayAgainResponse() {
+        stateLock.lock();
+        try {
+            return waitingForPlayAgainResponse;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    public boolean isFinished() {
+        stateLock.lock();
+        try {
+            return shouldQuit || isClosed();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    // current board encoded as in BoardPositions
+    public int boardCode() {
+        stateLock.lock();
+        try {
+            return BoardPositions.encode(board);
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    public CompletableFuture<Void> connectedFuture() {
+        return connected;
+    }
+
+    public static void main(String[] args) {
+        try (ClientRuntime runtime = new ClientRuntime()) {
+            String server = "wss://tic-tac-toe-0lam.onrender.com";
+            // --tournament registers for the next bracket on connect, before matchmaking can pair this session
+            if (args.length > 0 && "--tournament".equals(args[0])) {
+                server += "/?tournament";
+            }
+            URI serverURI = new URI(server);
             // creates client object
             TicTacToeClient client = new TicTacToeClient(serverURI);
 
             System.out.println("Connecting to server...");
-            // initiates actual web socket connection to server
-            client.connect();
-
-            Thread.sleep(1000);
-
-            if (client.isOpen()) {
-                client.startGameLoop();
-            } else {
+            // initiates actual web socket connection to server and waits for the handshake
+            try {
+                runtime.connect(client).get(10, TimeUnit.SECONDS);
+            } catch (Exception e) {
                 System.out.println("Failed to connect. Make sure server is running on localhost:8080");
+                return;
             }
 
+            client.startGameLoop();
+
         } catch (Exception e) {
             System.out.println("Error: " + e.getMessage());
         }
@@ -1,52 +1,219 @@
 package com.example;
 
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
 import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.DefaultWebSocketServerFactory;
 import org.java_websocket.server.WebSocketServer;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TicTacToeWebSocketServer extends WebSocketServer {
     // change 1
 //    private static final int PORT = 8080;
-    private static final int PORT = Integer.parseInt(System.getenv().getOrDefault("PORT", "10000"));
+    private static final int PORT = Integer.parseInt(setting("PORT", "10000"));
+    // number of hints each player may ask for per game
+    private static final int HINTS_PER_GAME = Integer.parseInt(setting("HINTS_PER_GAME", "3"));
+    // number of players needed before a tournament bracket is seeded
+    private static final int TOURNAMENT_SIZE = Integer.parseInt(setting("TOURNAMENT_SIZE", "8"));
+
+    // Socket settings
+    // WORKER_THREADS: threads decoding incoming messages (the library default is one per processor)
+    private static final int WORKER_THREADS = Integer.parseInt(setting("WORKER_THREADS",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+    // TCP_NODELAY: moves are tiny messages, so don't let Nagle's algorithm hold them back
+    private static final boolean TCP_NODELAY = Boolean.parseBoolean(setting("TCP_NODELAY", "true"));
+    private static final boolean REUSE_ADDR = Boolean.parseBoolean(setting("REUSE_ADDR", "false"));
+    // RECEIVE_BUFFER_BYTES: socket receive buffer and per-read buffer size
+    private static final int RECEIVE_BUFFER_BYTES = Integer.parseInt(setting("RECEIVE_BUFFER_BYTES", "16384"));
+    // CONNECTION_LOST_TIMEOUT: seconds without a pong before a connection is dropped (0 turns the check off)
+    private static final int CONNECTION_LOST_TIMEOUT = Integer.parseInt(setting("CONNECTION_LOST_TIMEOUT", "60"));
+    // PERMESSAGE_DEFLATE: offer RFC 7692 compression to clients that ask for it
+    private static final boolean PERMESSAGE_DEFLATE = Boolean.parseBoolean(setting("PERMESSAGE_DEFLATE", "false"));
+    // DEFLATE_THRESHOLD: smallest message (bytes) worth compressing
+    private static final int DEFLATE_THRESHOLD = Integer.parseInt(setting("DEFLATE_THRESHOLD", "0"));
+    // DEFLATE_CONTEXT_TAKEOVER: keep the compression window between messages; our messages repeat a lot,
+    // so this is most of the saving (see DeflateBenchmark), at the cost of a deflater kept per connection
+    private static final boolean DEFLATE_CONTEXT_TAKEOVER = Boolean.parseBoolean(setting("DEFLATE_CONTEXT_TAKEOVER", "true"));
 
     private final Gson gson = new Gson();
 
     // Game instance management
+    // messages from different connections are decoded on several worker threads, so these are concurrent collections
     // games: a map to store all active game instances (gameId, game instance)
-    private final Map<String, GameInstance> games = new HashMap<>();
-    // waitingQueue: a queue to store websocket connections of players waiting to be matched for a new game
-    private final Queue<WebSocket> waitingQueue = new LinkedList<>();
+    private final Map<String, GameInstance> games = new ConcurrentHashMap<>();
+    // waitingQueue: players waiting to be matched for a new game, in arrival order
+    // guarded by the matchmaking lock (this), so a pair is always taken from the queue as a whole
+    private final Set<PlayerConnection> waitingQueue = new LinkedHashSet<>();
+    // queueSize: waitingQueue.size(), readable without the lock (sent with every game state)
+    private volatile int queueSize = 0;
     // playerToGameId: a map which tracks which game each player(websocket) belongs to
-    private final Map<WebSocket, String> playerToGameId = new HashMap<>();
+    private final Map<PlayerConnection, String> playerToGameId = new ConcurrentHashMap<>();
     // gameCounter: count of games (used to generate unique game ids)
-    private int gameCounter = 0;
+    private final AtomicInteger gameCounter = new AtomicInteger();
+    // scheduler: runs delayed messages; one shared timer thread in production, a virtual clock in simulations
+    private final TaskScheduler scheduler;
+
+    // started: released once the server is accepting connections
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    // recorder: appends finished games to replay segments (null when recording is turned off)
+    private final GameRecorder recorder;
+
+    // Tournament management
+    // openTournament: the tournament currently accepting registrations
+    private Tournament openTournament = null;
+    private int tournamentCounter = 0;
+    // tournamentPlayers: players registered for or still alive in a bracket (player, tournament)
+    private final Map<PlayerConnection, Tournament> tournamentPlayers = new ConcurrentHashMap<>();
+
+    // lobby: private rooms and the list of online players
+    private final Lobby lobby = new Lobby(this);
+
+    // notified when a game with a listener finishes, instead of asking the players to play again
+    interface MatchListener {
+        // winner is "X", "O", "draw", or null when both players left
+        void matchEnded(String gameId, String winner);
+    }
+
+    // runs a task after a delay
+    interface TaskScheduler {
+        void schedule(Runnable task, long delayMillis);
+    }
 
     public TicTacToeWebSocketServer() {
 //        super(new InetSocketAddress(PORT));
         // change 2
-        super(new InetSocketAddress("0.0.0.0", PORT));
+        this(new InetSocketAddress("0.0.0.0", PORT), timerThread(), GameRecorder.fromEnv());
+        if (recorder != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(recorder::close));
+        }
+    }
+
+    TicTacToeWebSocketServer(InetSocketAddress address, TaskScheduler scheduler, GameRecorder recorder) {
+        super(address, WORKER_THREADS, drafts());
+        this.scheduler = scheduler;
+        this.recorder = recorder;
+        setTcpNoDelay(TCP_NODELAY);
+        setReuseAddr(REUSE_ADDR);
+        setConnectionLostTimeout(CONNECTION_LOST_TIMEOUT);
+        setWebSocketFactory(new DefaultWebSocketServerFactory() {
+            @Override
+            public SocketChannel wrapChannel(SocketChannel channel, SelectionKey key) {
+                try {
+                    channel.socket().setReceiveBufferSize(RECEIVE_BUFFER_BYTES);
+                } catch (SocketException e) {
+                    System.out.println("Could not set receive buffer: " + e.getMessage());
+                }
+                return super.wrapChannel(channel, key);
+            }
+        });
+    }
+
+    // a setting from the environment, or a system property of the same name (-DPORT=8080)
+    static String setting(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            value = System.getenv(name);
+        }
+        return value != null ? value : defaultValue;
+    }
+
+    // null keeps the library's default drafts
+    private static List<Draft> drafts() {
+        if (!PERMESSAGE_DEFLATE) {
+            return null;
+        }
+        return Collections.singletonList(new Draft_6455(new ConfiguredDeflateExtension()));
+    }
+
+    // permessage-deflate with our settings. Each connection gets copyInstance() of the draft's extension, and
+    // Java-WebSocket 1.5.4 copies it without its settings, so the copy is made here.
+    private static class ConfiguredDeflateExtension extends PerMessageDeflateExtension {
+        ConfiguredDeflateExtension() {
+            // the library skips messages under 1024 bytes by default, which would be every message we send
+            setThreshold(DEFLATE_THRESHOLD);
+            setServerNoContextTakeover(!DEFLATE_CONTEXT_TAKEOVER);
+        }
+
+        @Override
+        public IExtension copyInstance() {
+            return new ConfiguredDeflateExtension();
+        }
+
+        // a client that asks for server_no_context_takeover must get it (RFC 7692, section 7.1.1.1)
+        @Override
+        public boolean acceptProvidedExtensionAsServer(String inputExtension) {
+            if (!super.acceptProvidedExtensionAsServer(inputExtension)) {
+                return false;
+            }
+            if (inputExtension.contains("server_no_context_takeover")) {
+                setServerNoContextTakeover(true);
+            }
+            return true;
+        }
+
+        // 1.5.4 always answers with server_no_context_takeover, which would be false with context takeover on
+        @Override
+        public String getProvidedExtensionAsServer() {
+            String provided = super.getProvidedExtensionAsServer();
+            return isServerNoContextTakeover() ? provided : provided.replace("; server_no_context_takeover", "");
+        }
+    }
+
+    // per-read buffer; the library's default size is the constant WebSocketImpl.RCVBUF
+    @Override
+    public ByteBuffer createBuffer() {
+        return ByteBuffer.allocate(RECEIVE_BUFFER_BYTES);
+    }
+
+    // one shared timer thread for delayed messages, instead of a new Timer (and thread) per game
+    private static TaskScheduler timerThread() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "game-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        return (task, delayMillis) -> executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
     }
 
     private class GameInstance {
         private final String gameId;
         private final String[] board = new String[9];
+        // moves: positions played so far in this game, in order (for replays)
+        private final byte[] moves = new byte[9];
+        private int moveCount = 0;
         private String currentTurn = "X";
         private String winner = null;
         private boolean gameStarted = false;
         private boolean gameEnded = false;
-        private WebSocket playerX = null;
-        private WebSocket playerO = null;
+        private PlayerConnection playerX = null;
+        private PlayerConnection playerO = null;
 
         private boolean waitingForResponses = false;
         private Boolean playerXWantsToPlay = null;
         private Boolean playerOWantsToPlay = null;
 
+        private int hintsUsedX = 0;
+        private int hintsUsedO = 0;
+
+        private MatchListener matchListener = null;
+
         public GameInstance(String gameId) {
             this.gameId = gameId;
             initializeBoard();
@@ -56,9 +223,10 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
             for (int i = 0; i < 9; i++) {
                 board[i] = String.valueOf(i + 1);
             }
+            moveCount = 0;
         }
 
-        public void assignPlayers(WebSocket x, WebSocket o) {
+        public void assignPlayers(PlayerConnection x, PlayerConnection o) {
             this.playerX = x;
             this.playerO = o;
             playerToGameId.put(x, gameId);
@@ -70,16 +238,11 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
             gameStarted = true;
             broadcastGameState();
 
-            Timer timer = new Timer();
-            timer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    broadcastToGame(createMessage("gameStart", currentTurn, "Game #" + gameId + " started! " + currentTurn + "'s turn"));
-                }
-            }, 50);
+            scheduler.schedule(() -> broadcastToGame(createMessage("gameStart", currentTurn,
+                    "Game #" + gameId + " started! " + currentTurn + "'s turn")), 50);
         }
 
-        public boolean handleMove(WebSocket conn, int position) {
+        public boolean handleMove(PlayerConnection conn, int position) {
             if (!gameStarted || gameEnded) {
                 sendMessage(conn, createMessage("error", null, "Game not active"));
                 return false;
@@ -109,6 +272,7 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
 
             // Make the move
             board[position - 1] = currentTurn;
+            moves[moveCount++] = (byte) position;
             winner = checkWinner();
 
             if (winner != null) {
@@ -121,7 +285,16 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
                     broadcastToGame(createMessage("gameEnd", winner, "Game #" + gameId + " ended - " + winner + " wins!"));
                 }
 
-                askPlayersToPlayAgain();
+                // after the players are told, before a tournament listener can reset the board to replay a draw
+                if (recorder != null) {
+                    recorder.record(moves, moveCount, winner);
+                }
+
+                if (matchListener != null) {
+                    matchListener.matchEnded(gameId, winner);
+                } else {
+                    askPlayersToPlayAgain();
+                }
                 return true;
             } else {
                 currentTurn = currentTurn.equals("X") ? "O" : "X";
@@ -133,6 +306,11 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
         }
 
         public void reset() {
+            if (gameEnded) {
+                // a new game starts, so hint quotas start over (a reset in the middle of a game keeps them)
+                hintsUsedX = 0;
+                hintsUsedO = 0;
+            }
             initializeBoard();
             currentTurn = "X";
             winner = null;
@@ -147,6 +325,49 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
             }
         }
 
+        public void handleHint(PlayerConnection conn) {
+            if (!gameStarted || gameEnded) {
+                sendMessage(conn, createMessage("error", null, "Game not active"));
+                return;
+            }
+
+            String playerSymbol = null;
+            if (conn == playerX) {
+                playerSymbol = "X";
+            } else if (conn == playerO) {
+                playerSymbol = "O";
+            }
+
+            if (playerSymbol == null || !playerSymbol.equals(currentTurn)) {
+                sendMessage(conn, createMessage("error", null, "Hints are only available on your turn"));
+                return;
+            }
+
+            int used = "X".equals(playerSymbol) ? hintsUsedX : hintsUsedO;
+            if (used >= HINTS_PER_GAME) {
+                sendMessage(conn, createMessage("error", null, "No hints left for this game"));
+                return;
+            }
+            if ("X".equals(playerSymbol)) {
+                hintsUsedX++;
+            } else {
+                hintsUsedO++;
+            }
+
+            // constant time lookup in the precomputed table
+            int code = BoardPositions.encode(board);
+            int position = PositionCache.get().bestMove(code);
+            String outcome = PositionCache.get().outcome(code);
+            String result = "draw".equals(outcome) ? "a draw" : outcome + " wins";
+
+            JsonObject json = createMessage("hint", String.valueOf(position),
+                    "Best move: " + position + " (with perfect play: " + result + ")");
+            json.addProperty("position", position);
+            json.addProperty("outcome", outcome);
+            json.addProperty("hintsLeft", HINTS_PER_GAME - used - 1);
+            sendMessage(conn, json);
+        }
+
         private void askPlayersToPlayAgain() {
             waitingForResponses = true;
             playerXWantsToPlay = null;
@@ -164,7 +385,7 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
             System.out.println("Asked players in game #" + gameId + " if they want to play again");
         }
 
-        public void handlePlayAgainResponse(WebSocket conn, boolean wantsToPlay) {
+        public void handlePlayAgainResponse(PlayerConnection conn, boolean wantsToPlay) {
             if (!waitingForResponses) {
                 sendMessage(conn, createMessage("error", null, "No response needed at this time"));
                 return;
@@ -210,14 +431,11 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
             // Handle players who don't want to play
             if (playerX != null && playerXWantsToPlay==Boolean.FALSE) {
                 sendMessage(playerX, createMessage("leftGame", null, "Thanks for playing! You can reconnect anytime."));
-                Timer timer = new Timer();
-                timer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        try {
-                            playerX.close();
-                        } catch (Exception e) {
-                        }
+                PlayerConnection leaving = playerX;
+                scheduler.schedule(() -> {
+                    try {
+                        leaving.close();
+                    } catch (Exception e) {
                     }
                 }, 500);
                 removePlayer(playerX);
@@ -225,14 +443,11 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
 
             if (playerO != null && playerOWantsToPlay==Boolean.FALSE) {
                 sendMessage(playerO, createMessage("leftGame", null, "Thanks for playing! You can reconnect anytime."));
-                Timer timer = new Timer();
-                timer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        try {
-                            playerO.close();
-                        } catch (Exception e) {
-                        }
+                PlayerConnection leaving = playerO;
+                scheduler.schedule(() -> {
+                    try {
+                        leaving.close();
+                    } catch (Exception e) {
                     }
                 }, 500);
                 removePlayer(playerO);
@@ -240,64 +455,20 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
 
             // Add players who want to continue (but their partner doesn't) back to queue
             if (playerX != null && playerXWantsToPlay==Boolean.TRUE) {
-                TicTacToeWebSocketServer.this.waitingQueue.offer(playerX);
+                enqueue(playerX);
                 sendMessage(playerX, createMessage("backToQueue", null, "You're back in queue for a new game!"));
                 removePlayer(playerX);
             }
 
             if (playerO != null && playerOWantsToPlay==Boolean.TRUE) {
-                TicTacToeWebSocketServer.this.waitingQueue.offer(playerO);
+                enqueue(playerO);
                 sendMessage(playerO, createMessage("backToQueue", null, "You're back in queue for a new game!"));
                 removePlayer(playerO);
             }
         }
 
         private String checkWinner() {
-            // horizontal
-            if ((board[0] + board[1] + board[2]).equals("XXX")) {
-                return "X";
-            } else if ((board[0] + board[1] + board[2]).equals("OOO")) {
-                return "O";
-            } else if ((board[3] + board[4] + board[5]).equals("OOO")) {
-                return "O";
-            } else if ((board[3] + board[4] + board[5]).equals("XXX")) {
-                return "X";
-            } else if ((board[6] + board[7] + board[8]).equals("OOO")) {
-                return "O";
-            } else if ((board[6] + board[7] + board[8]).equals("XXX")) {
-                return "X";
-            }
-            // vertical
-            if ((board[0] + board[3] + board[6]).equals("XXX")) {
-                return "X";
-            } else if ((board[0] + board[3] + board[6]).equals("OOO")) {
-                return "O";
-            } else if ((board[1] + board[4] + board[7]).equals("OOO")) {
-                return "O";
-            } else if ((board[1] + board[4] + board[7]).equals("XXX")) {
-                return "X";
-            } else if ((board[2] + board[5] + board[8]).equals("OOO")) {
-                return "O";
-            } else if ((board[2] + board[5] + board[8]).equals("XXX")) {
-                return "X";
-            }
-            // diagonal
-            else if ((board[0] + board[4] + board[8]).equals("OOO")) {
-                return "O";
-            } else if ((board[0] + board[4] + board[8]).equals("XXX")) {
-                return "X";
-            } else if ((board[2] + board[4] + board[6]).equals("OOO")) {
-                return "O";
-            } else if ((board[2] + board[4] + board[6]).equals("XXX")) {
-                return "X";
-            }
-
-            for (int i = 0; i < 9; i++) {
-                if (board[i].equals(String.valueOf(i + 1))) {
-                    return null; // game not done
-                }
-            }
-            return "draw"; // game done but no winner
+            return BoardPositions.winner(BoardPositions.encode(board));
         }
 
         private void broadcastToGame(JsonObject message) {
@@ -319,11 +490,11 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
             json.addProperty("gameEnded", gameEnded);
             json.addProperty("winner", winner);
             json.addProperty("gameId", gameId);
-            json.addProperty("queueSize", waitingQueue.size());
+            json.addProperty("queueSize", queueSize);
             broadcastToGame(json);
         }
 
-        public void removePlayer(WebSocket conn) {
+        public void removePlayer(PlayerConnection conn) {
             if (conn == playerX) {
                 playerX = null;
             } else if (conn == playerO) {
@@ -336,12 +507,19 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
             return playerX == null && playerO == null;
         }
 
-        public boolean hasPlayer(WebSocket conn) {
+        // a tournament match is forfeited to whoever is still connected
+        private void forfeit() {
+            gameEnded = true;
+            winner = playerX != null ? "X" : playerO != null ? "O" : null;
+            matchListener.matchEnded(gameId, winner);
+        }
+
+        public boolean hasPlayer(PlayerConnection conn) {
             return conn == playerX || conn == playerO;
         }
     }
 
-    private void handlePlayAgainResponse(WebSocket conn, boolean wantsToPlay) {
+    private void handlePlayAgainResponse(PlayerConnection conn, boolean wantsToPlay) {
         String gameId = playerToGameId.get(conn);
         if (gameId == null) {
             sendMessage(conn, createMessage("error", null, "You are not in an active game"));
@@ -350,35 +528,159 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
 
         GameInstance game = games.get(gameId);
         if (game != null) {
-            game.handlePlayAgainResponse(conn, wantsToPlay);
+            boolean removed = false;
+            synchronized (game) {
+                game.handlePlayAgainResponse(conn, wantsToPlay);
 
-            if (game.isEmpty()) {
-                games.remove(gameId);
-                System.out.println("Removed completed game #" + gameId);
+                if (game.isEmpty()) {
+                    games.remove(gameId);
+                    System.out.println("Removed completed game #" + gameId);
+                    removed = true;
+                }
+            }
+            if (removed) {
                 createGamesFromQueue();
             }
         }
     }
 
+    private void handleHint(PlayerConnection conn) {
+        String gameId = playerToGameId.get(conn);
+        if (gameId == null) {
+            sendMessage(conn, createMessage("error", null, "You are not in an active game"));
+            return;
+        }
+
+        GameInstance game = games.get(gameId);
+        if (game != null) synchronized (game) {
+            game.handleHint(conn);
+        }
+    }
+
+    private void handleJoinTournament(PlayerConnection conn) {
+        Tournament full = null;
+        synchronized (this) {
+            if (playerToGameId.containsKey(conn)) {
+                sendMessage(conn, createMessage("error", null, "Finish your current game before joining a tournament"));
+                return;
+            }
+            // winners waiting for their next round have no game, but are still in their bracket
+            if (tournamentPlayers.containsKey(conn)) {
+                sendMessage(conn, createMessage("error", null, "You are already in a tournament"));
+                return;
+            }
+            // the same rule as for rooms, so a room host can't also be seeded in a bracket
+            if (!leaveQueue(conn)) {
+                sendMessage(conn, createMessage("error", null,
+                        "Only players waiting for a game can join a tournament (connect with ?tournament to register on arrival)"));
+                return;
+            }
+            full = enterTournament(conn);
+        }
+        if (full != null) {
+            full.start();
+        }
+    }
+
+    // registers a player for the open bracket; returns the bracket if this registration filled it
+    private synchronized Tournament enterTournament(PlayerConnection conn) {
+        if (openTournament == null) {
+            openTournament = new Tournament(this, String.valueOf(++tournamentCounter), TOURNAMENT_SIZE);
+        }
+        tournamentPlayers.put(conn, openTournament);
+        if (!openTournament.register(conn)) {
+            return null;
+        }
+        // bracket is full, the next registration opens a new tournament
+        Tournament full = openTournament;
+        openTournament = null;
+        return full;
+    }
+
+    // ws://host:port/?tournament registers for the open bracket on connect instead of joining matchmaking,
+    // since matchmaking pairs a new connection with anyone already waiting before they could send joinTournament
+    private static boolean wantsTournament(ClientHandshake handshake) {
+        String query;
+        try {
+            query = new URI(handshake.getResourceDescriptor()).getRawQuery();
+        } catch (URISyntaxException e) {
+            return false;
+        }
+        if (query == null) {
+            return false;
+        }
+        for (String parameter : query.split("&")) {
+            if ("tournament".equals(parameter) || "tournament=true".equals(parameter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     // called when a new WebSocket connection is established
     @Override
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
-        System.out.println("New connection: " + conn.getRemoteSocketAddress());
-        waitingQueue.add(conn);
-        createGamesFromQueue();
+        PlayerConnection player = new WebSocketConnection(conn);
+        conn.setAttachment(player);
+        handleOpen(player, wantsTournament(handshake));
     }
 
     // called when a WebSocket connection is closed
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-        System.out.println("Connection closed: " + conn.getRemoteSocketAddress());
+        PlayerConnection player = conn.getAttachment();
+        // connections that never finished the handshake have no player
+        if (player != null) {
+            handleClose(player);
+        }
+    }
+
+    // called when a message arrives from the client
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+        PlayerConnection player = conn.getAttachment();
+        if (player != null) {
+            handleMessage(player, message);
+        }
+    }
+
+    // The handle* methods hold the connection lifecycle independently of the transport,
+    // so the simulation harness can drive them with in-memory connections.
+
+    void handleOpen(PlayerConnection conn) {
+        handleOpen(conn, false);
+    }
+
+    void handleOpen(PlayerConnection conn, boolean tournament) {
+        System.out.println("New connection: " + conn.remoteAddress());
+        lobby.connected(conn);
+        if (tournament) {
+            Tournament full = enterTournament(conn);
+            if (full != null) {
+                full.start();
+            }
+            return;
+        }
+        enqueue(conn);
+        createGamesFromQueue();
+    }
+
+    void handleClose(PlayerConnection conn) {
+        System.out.println("Connection closed: " + conn.remoteAddress());
 
-        waitingQueue.remove(conn);
+        lobby.disconnected(conn);
+        synchronized (this) {
+            leaveQueue(conn);
+            tournamentPlayers.remove(conn);
+            if (openTournament != null) {
+                openTournament.unregister(conn);
+            }
+        }
 
         String gameId = playerToGameId.get(conn);
         if (gameId != null) {
             GameInstance game = games.get(gameId);
-            if (game != null) {
+            if (game != null) synchronized (game) {
                 game.removePlayer(conn);
 
                 if (game.playerX != null) {
@@ -388,6 +690,10 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
                     sendMessage(game.playerO, createMessage("playerDisconnected", null, "Other player disconnected from Game #" + gameId));
                 }
 
+                if (game.matchListener != null && !game.gameEnded) {
+                    game.forfeit();
+                }
+
                 if (game.isEmpty()) {
                     games.remove(gameId);
                     System.out.println("Removed empty game #" + gameId);
@@ -398,9 +704,7 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
         playerToGameId.remove(conn);
     }
 
-    // called when a message arrives from the client
-    @Override
-    public void onMessage(WebSocket conn, String message) {
+    void handleMessage(PlayerConnection conn, String message) {
         System.out.println("Received message: " + message);
         try {
             JsonObject json = JsonParser.parseString(message).getAsJsonObject();
@@ -412,6 +716,22 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
                 handleReset(conn);
             } else if ("playAgain".equals(action)) {
                 handlePlayAgainResponse(conn, json.get("response").getAsBoolean());
+            } else if ("hint".equals(action)) {
+                handleHint(conn);
+            } else if ("joinTournament".equals(action)) {
+                handleJoinTournament(conn);
+            } else if ("createRoom".equals(action)) {
+                lobby.createRoom(conn);
+            } else if ("joinRoom".equals(action)) {
+                lobby.joinRoom(conn, json.get("code").getAsString());
+            } else if ("leaveRoom".equals(action)) {
+                lobby.leaveRoom(conn);
+            } else if ("invite".equals(action)) {
+                lobby.invite(conn, json.get("playerId").getAsInt());
+            } else if ("listPlayers".equals(action)) {
+                int after = json.has("after") ? json.get("after").getAsInt() : 0;
+                int limit = json.has("limit") ? json.get("limit").getAsInt() : 20;
+                lobby.listPlayers(conn, after, limit);
             }
         } catch (Exception e) {
             System.out.println("Error parsing message: " + e.getMessage());
@@ -429,26 +749,38 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
     @Override
     public void onStart() {
         System.out.println("Server started successfully!");
+        started.countDown();
     }
 
-    private void createGamesFromQueue() {
+    // synchronized like every other queue change, so a pair can't lose a player between the size check and the polls
+    private synchronized void createGamesFromQueue() {
         while (waitingQueue.size() >= 2) {
-            WebSocket playerX = waitingQueue.poll();
-            WebSocket playerO = waitingQueue.poll();
+            PlayerConnection playerX = pollOpen();
+            PlayerConnection playerO = pollOpen();
+            if (playerO == null) {
+                // everyone else in the queue had closed, so X is the only one left waiting
+                if (playerX != null) {
+                    enqueue(playerX);
+                }
+                break;
+            }
 
-            String gameId = String.valueOf(++gameCounter);
+            String gameId = String.valueOf(gameCounter.incrementAndGet());
             GameInstance newGame = new GameInstance(gameId);
-            games.put(gameId, newGame);
-
-            newGame.assignPlayers(playerX, playerO);
+            // as in startMatch, a first move can arrive on another worker as soon as playerToGameId is set;
+            // nobody else can hold the lock of an unpublished game, so taking it here can't deadlock
+            synchronized (newGame) {
+                games.put(gameId, newGame);
+                newGame.assignPlayers(playerX, playerO);
+            }
 
             System.out.println("Created new game #" + gameId + " with " +
-                    playerX.getRemoteSocketAddress() + " (X) and " +
-                    playerO.getRemoteSocketAddress() + " (O)");
+                    playerX.remoteAddress() + " (X) and " +
+                    playerO.remoteAddress() + " (O)");
         }
     }
 
-    private void handleMove(WebSocket conn, int position) {
+    private void handleMove(PlayerConnection conn, int position) {
         String gameId = playerToGameId.get(conn);
         if (gameId == null) {
             sendMessage(conn, createMessage("error", null, "You are not in an active game"));
@@ -461,14 +793,17 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
             return;
         }
 
-        boolean gameEnded = game.handleMove(conn, position);
+        boolean gameEnded;
+        synchronized (game) {
+            gameEnded = game.handleMove(conn, position);
+        }
 
         if (!gameEnded) {
             createGamesFromQueue();
         }
     }
 
-    private void handleReset(WebSocket conn) {
+    private void handleReset(PlayerConnection conn) {
         String gameId = playerToGameId.get(conn);
         if (gameId == null) {
             sendMessage(conn, createMessage("error", null, "You are not in an active game"));
@@ -476,11 +811,137 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
         }
 
         GameInstance game = games.get(gameId);
-        if (game != null) {
+        if (game != null) synchronized (game) {
+            // a reset would let a losing player wipe a bracket match forever
+            if (game.matchListener != null) {
+                sendMessage(conn, createMessage("error", null, "Tournament games can't be reset"));
+                return;
+            }
+            game.reset();
+        }
+    }
+
+    // starts a game between two players; with a listener the result is reported to it (tournaments),
+    // without one the players get the usual play again question (rooms)
+    String startMatch(PlayerConnection playerX, PlayerConnection playerO, MatchListener listener) {
+        String gameId = String.valueOf(gameCounter.incrementAndGet());
+        GameInstance newGame = new GameInstance(gameId);
+        newGame.matchListener = listener;
+        synchronized (newGame) {
+            games.put(gameId, newGame);
+            newGame.assignPlayers(playerX, playerO);
+            // a player who closed before the mappings above were set found no game in handleClose,
+            // so nothing else would ever end this match
+            if (listener != null && (!playerX.isOpen() || !playerO.isOpen())) {
+                if (!playerX.isOpen()) {
+                    newGame.removePlayer(playerX);
+                }
+                if (!playerO.isOpen()) {
+                    newGame.removePlayer(playerO);
+                }
+                newGame.forfeit();
+            }
+        }
+        return gameId;
+    }
+
+    // replays a drawn match with the same players
+    void replayMatch(String gameId) {
+        GameInstance game = games.get(gameId);
+        if (game != null) synchronized (game) {
             game.reset();
         }
     }
 
+    // removes a finished match and frees its players for their next match
+    void endMatch(String gameId) {
+        GameInstance game = games.remove(gameId);
+        if (game != null) synchronized (game) {
+            if (game.playerX != null) {
+                game.removePlayer(game.playerX);
+            }
+            if (game.playerO != null) {
+                game.removePlayer(game.playerO);
+            }
+        }
+    }
+
+    // counts for the simulation harness to check that nothing leaks
+    int activeGames() {
+        return games.size();
+    }
+
+    int queuedPlayers() {
+        return queueSize;
+    }
+
+    int playersInGames() {
+        return playerToGameId.size();
+    }
+
+    // The matchmaking queue is only changed through these, under the matchmaking lock.
+
+    private synchronized void enqueue(PlayerConnection conn) {
+        waitingQueue.add(conn);
+        queueSize = waitingQueue.size();
+    }
+
+    private synchronized PlayerConnection pollQueue() {
+        Iterator<PlayerConnection> first = waitingQueue.iterator();
+        PlayerConnection conn = first.next();
+        first.remove();
+        queueSize = waitingQueue.size();
+        return conn;
+    }
+
+    // next queued player whose connection is still open; a closed one was queued again (returnToQueue)
+    // just as it closed, and its close has nothing left to clean up
+    private synchronized PlayerConnection pollOpen() {
+        while (!waitingQueue.isEmpty()) {
+            PlayerConnection conn = pollQueue();
+            if (conn.isOpen()) {
+                return conn;
+            }
+        }
+        return null;
+    }
+
+    // takes a player out of the matchmaking queue; false if they weren't waiting in it
+    synchronized boolean leaveQueue(PlayerConnection conn) {
+        boolean removed = waitingQueue.remove(conn);
+        queueSize = waitingQueue.size();
+        return removed;
+    }
+
+    boolean isInGame(PlayerConnection conn) {
+        return playerToGameId.containsKey(conn);
+    }
+
+    // called by a tournament when a player is eliminated or wins it
+    void leaveTournament(PlayerConnection conn) {
+        if (conn != null) {
+            tournamentPlayers.remove(conn);
+        }
+    }
+
+    // puts a player back into the regular matchmaking queue
+    void returnToQueue(PlayerConnection conn) {
+        if (conn == null || !conn.isOpen()) {
+            return;
+        }
+        enqueue(conn);
+        sendMessage(conn, createMessage("backToQueue", null, "You're back in queue for a new game!"));
+        createGamesFromQueue();
+    }
+
+    void sendTo(PlayerConnection conn, String type, String data, String message) {
+        sendMessage(conn, createMessage(type, data, message));
+    }
+
+    void sendJson(PlayerConnection conn, JsonObject message) {
+        sendMessage(conn, message);
+    }
+
     private JsonObject createMessage(String type, String data, String message) {
         JsonObject json = new JsonObject();
         json.addProperty("type", type);
@@ -489,15 +950,41 @@ public class TicTacToeWebSocketServer extends WebSocketServer {
         return json;
     }
 
-    private void sendMessage(WebSocket conn, JsonObject message) {
+    private void sendMessage(PlayerConnection conn, JsonObject message) {
         if (conn != null && conn.isOpen()) {
             conn.send(gson.toJson(message));
         }
     }
 
-    public static void main(String[] args) {
+    // plays a few bot games against this server and exits, so a class data sharing archive
+    // recorded with -XX:ArchiveClassesAtExit covers the classes a real game loads
+    private static void warmUp(TicTacToeWebSocketServer server) throws Exception {
+        if (!server.started.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Server did not start");
+        }
+        try (ClientRuntime runtime = new ClientRuntime()) {
+            URI serverURI = new URI("ws://localhost:" + PORT);
+            CompletableFuture.allOf(
+                    runtime.launch(new TicTacToeClient(serverURI, false), InputSource.bot(3)),
+                    runtime.launch(new TicTacToeClient(serverURI, false), InputSource.bot(3))
+            ).get(60, TimeUnit.SECONDS);
+        }
+        server.stop(1000);
+        System.out.println("Warm-up finished");
+        System.exit(0);
+    }
+
+    public static void main(String[] args) throws Exception {
         TicTacToeWebSocketServer server = new TicTacToeWebSocketServer();
         server.start();
         System.out.println("Server started on port " + PORT);
+        System.out.println("Socket settings: workers=" + WORKER_THREADS + ", tcpNoDelay=" + TCP_NODELAY
+                + ", reuseAddr=" + REUSE_ADDR + ", receiveBuffer=" + RECEIVE_BUFFER_BYTES
+                + ", connectionLostTimeout=" + CONNECTION_LOST_TIMEOUT + "s, permessageDeflate=" + PERMESSAGE_DEFLATE
+                + (PERMESSAGE_DEFLATE ? " (threshold=" + DEFLATE_THRESHOLD + ", contextTakeover=" + DEFLATE_CONTEXT_TAKEOVER + ")" : ""));
+
+        if (args.length > 0 && "--warmup".equals(args[0])) {
+            warmUp(server);
+        }
     }
 }
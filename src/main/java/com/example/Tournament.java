@@ -0,0 +1,195 @@
+package com.example;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Single elimination tournament played as rounds of regular games on the server.
+// Matches are driven by gameEnd events, so a round of thousands of games needs no extra threads.
+public class Tournament {
+    // drawn matches are replayed this many times before the higher seed (player X) advances
+    private static final int MAX_DRAW_REPLAYS = 2;
+    // match time recorded for a bye, which is left out of the round's latency report
+    private static final long BYE = -1;
+
+    private final TicTacToeWebSocketServer server;
+    private final String tournamentId;
+    private final int size;
+    // registered: players who joined before the bracket was seeded, in seeding order
+    private final List<PlayerConnection> registered = new ArrayList<>();
+    private boolean started = false;
+
+    public Tournament(TicTacToeWebSocketServer server, String tournamentId, int size) {
+        this.server = server;
+        this.tournamentId = tournamentId;
+        this.size = size;
+    }
+
+    // one round of the bracket: winners are written by index as matches finish
+    private static class Round {
+        private final int number;
+        private final AtomicReferenceArray<PlayerConnection> winners;
+        private final long[] matchNanos;
+        private final AtomicInteger remaining;
+        private final long startNanos = System.nanoTime();
+
+        private Round(int number, int matchCount) {
+            this.number = number;
+            this.winners = new AtomicReferenceArray<>(matchCount);
+            this.matchNanos = new long[matchCount];
+            this.remaining = new AtomicInteger(matchCount);
+        }
+    }
+
+    private static class Match {
+        private final Round round;
+        private final int index;
+        private final PlayerConnection playerX;
+        private final PlayerConnection playerO;
+        private final long startNanos = System.nanoTime();
+        private int draws = 0;
+
+        private Match(Round round, int index, PlayerConnection playerX, PlayerConnection playerO) {
+            this.round = round;
+            this.index = index;
+            this.playerX = playerX;
+            this.playerO = playerO;
+        }
+    }
+
+    // returns true when this registration filled the bracket
+    public synchronized boolean register(PlayerConnection conn) {
+        if (started || registered.contains(conn)) {
+            server.sendTo(conn, "error", null, "Already registered for Tournament #" + tournamentId);
+            return false;
+        }
+        registered.add(conn);
+        server.sendTo(conn, "tournamentJoined", tournamentId,
+                "Registered for Tournament #" + tournamentId + " (" + registered.size() + "/" + size + " players)");
+        if (registered.size() >= size) {
+            started = true;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void unregister(PlayerConnection conn) {
+        if (!started) {
+            registered.remove(conn);
+        }
+    }
+
+    public void start() {
+        List<PlayerConnection> players;
+        synchronized (this) {
+            players = new ArrayList<>(registered);
+        }
+        System.out.println("Tournament #" + tournamentId + " started with " + players.size() + " players");
+        startRound(1, players);
+    }
+
+    private void startRound(int number, List<PlayerConnection> players) {
+        // players who disconnected between rounds forfeit
+        List<PlayerConnection> active = new ArrayList<>();
+        for (PlayerConnection player : players) {
+            if (player.isOpen()) {
+                active.add(player);
+            }
+        }
+
+        if (active.size() <= 1) {
+            finish(active.isEmpty() ? null : active.get(0));
+            return;
+        }
+
+        int matchCount = (active.size() + 1) / 2;
+        Round round = new Round(number, matchCount);
+        System.out.println("Tournament #" + tournamentId + " round " + number + ": " + active.size() + " players");
+
+        for (int i = 0; i < matchCount; i++) {
+            PlayerConnection playerX = active.get(2 * i);
+            if (2 * i + 1 == active.size()) {
+                // odd player out gets a bye
+                server.sendTo(playerX, "tournamentBye", String.valueOf(number),
+                        "Tournament #" + tournamentId + ": you have a bye in round " + number);
+                complete(round, i, playerX, BYE);
+                continue;
+            }
+            PlayerConnection playerO = active.get(2 * i + 1);
+            Match match = new Match(round, i, playerX, playerO);
+            String message = "Tournament #" + tournamentId + " round " + number + " is starting";
+            server.sendTo(playerX, "tournamentRound", String.valueOf(number), message);
+            server.sendTo(playerO, "tournamentRound", String.valueOf(number), message);
+            server.startMatch(playerX, playerO, (gameId, winner) -> matchEnded(match, gameId, winner));
+        }
+    }
+
+    private void matchEnded(Match match, String gameId, String winner) {
+        if ("draw".equals(winner) && match.draws < MAX_DRAW_REPLAYS) {
+            match.draws++;
+            server.replayMatch(gameId);
+            return;
+        }
+
+        PlayerConnection advancing;
+        if (winner == null) {
+            advancing = null;
+        } else if ("O".equals(winner)) {
+            advancing = match.playerO;
+        } else {
+            // X won, or the draw replays ran out
+            advancing = match.playerX;
+        }
+        server.endMatch(gameId);
+
+        if (advancing != null) {
+            PlayerConnection eliminated = advancing == match.playerX ? match.playerO : match.playerX;
+            server.sendTo(eliminated, "eliminated", tournamentId,
+                    "You were eliminated from Tournament #" + tournamentId + " in round " + match.round.number);
+            server.leaveTournament(eliminated);
+            server.returnToQueue(eliminated);
+            // the winner of the final hears tournamentWon instead
+            if (match.round.winners.length() > 1) {
+                server.sendTo(advancing, "matchWon", tournamentId,
+                        "You advance to round " + (match.round.number + 1) + " of Tournament #" + tournamentId);
+            }
+        }
+
+        complete(match.round, match.index, advancing, System.nanoTime() - match.startNanos);
+    }
+
+    private void complete(Round round, int index, PlayerConnection winner, long matchNanos) {
+        round.winners.set(index, winner);
+        round.matchNanos[index] = matchNanos;
+        if (round.remaining.decrementAndGet() > 0) {
+            return;
+        }
+
+        // last match of the round: report latency and seed the next round
+        long roundMillis = (System.nanoTime() - round.startNanos) / 1_000_000;
+        long[] sorted = Arrays.stream(round.matchNanos).filter(nanos -> nanos != BYE).sorted().toArray();
+        System.out.println("Tournament #" + tournamentId + " round " + round.number + " completed: "
+                + sorted.length + " matches in " + roundMillis + " ms (median match "
+                + sorted[sorted.length / 2] / 1_000_000 + " ms, slowest "
+                + sorted[sorted.length - 1] / 1_000_000 + " ms)");
+
+        List<PlayerConnection> next = new ArrayList<>();
+        for (int i = 0; i < round.winners.length(); i++) {
+            if (round.winners.get(i) != null) {
+                next.add(round.winners.get(i));
+            }
+        }
+        startRound(round.number + 1, next);
+    }
+
+    private void finish(PlayerConnection champion) {
+        if (champion == null) {
+            System.out.println("Tournament #" + tournamentId + " ended without a winner");
+            return;
+        }
+        System.out.println("Tournament #" + tournamentId + " won by " + champion.remoteAddress());
+        server.sendTo(champion, "tournamentWon", tournamentId, "You won Tournament #" + tournamentId + "!");
+        server.leaveTournament(champion);
+        server.returnToQueue(champion);
+    }
+}
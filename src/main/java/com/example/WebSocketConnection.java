@@ -0,0 +1,32 @@
+package com.example;
+
+import org.java_websocket.WebSocket;
+
+// PlayerConnection backed by a real Java-WebSocket connection.
+public class WebSocketConnection implements PlayerConnection {
+    private final WebSocket socket;
+
+    public WebSocketConnection(WebSocket socket) {
+        this.socket = socket;
+    }
+
+    @Override
+    public void send(String text) {
+        socket.send(text);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return socket.isOpen();
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+
+    @Override
+    public String remoteAddress() {
+        return String.valueOf(socket.getRemoteSocketAddress());
+    }
+}